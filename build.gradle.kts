@@ -1,6 +1,7 @@
 plugins {
     `java-library`
     id("io.papermc.paperweight.userdev") version "2.0.0-beta.14"
+    id("me.champeau.jmh") version "0.7.2"
 }
 
 group = "com.jellypudding"
@@ -20,5 +21,40 @@ java {
     toolchain.languageVersion = JavaLanguageVersion.of(21)
 }
 
+// Benchmarks live in src/jmh/java and run headless with ./gradlew jmh
+jmh {
+    warmupIterations = 2
+    iterations = 5
+    fork = 1
+    // Adds allocation rate (gc.alloc.rate.norm) next to each score.
+    profilers = listOf("gc")
+}
+
+// The benchmarks build Paper API and NMS objects (server list entries, tab-list entries),
+// so they need the server classes at runtime as well as compile time.
+paperweight.addServerDependencyTo.add(configurations.named("jmhImplementation"))
+
+// Offline load test for the chat pipeline against a local mock OpenRouter server.
+// Run with ./gradlew loadTest --args="chatters=50 durationSeconds=60 errorRate=0.1"
+val loadtest: SourceSet by sourceSets.creating {
+    compileClasspath += sourceSets.main.get().output + sourceSets.main.get().compileClasspath
+    runtimeClasspath += output + compileClasspath + sourceSets.main.get().runtimeClasspath
+}
+paperweight.addServerDependencyTo.add(configurations.named("loadtestImplementation"))
+
+tasks.register<JavaExec>("loadTest") {
+    group = "verification"
+    description = "Runs the ChatAI load test against the mock OpenRouter server."
+    classpath = loadtest.runtimeClasspath
+    mainClass = "com.jellypudding.fakePlayers.LoadTest"
+}
+
+tasks.register<JavaExec>("mockOpenRouter") {
+    group = "verification"
+    description = "Starts the mock OpenRouter server on its own, for pointing a test server's api-url at."
+    classpath = loadtest.runtimeClasspath
+    mainClass = "com.jellypudding.fakePlayers.MockOpenRouterServer"
+}
+
 // Use Mojang mappings since we're targeting Paper only
 paperweight.reobfArtifactConfiguration = io.papermc.paperweight.userdev.ReobfArtifactConfiguration.MOJANG_PRODUCTION
\ No newline at end of file
@@ -0,0 +1,88 @@
+package com.jellypudding.fakePlayers;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Per-request CPU work in ChatAI: building the prompt from chat history, encoding the request
+// body, decoding the response and pulling the final answer out of reasoning output.
+// buildPrompt reuses the joined context like repeated generations do; buildPromptCold joins it
+// from scratch as happens after new chat.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ChatAIBenchmark {
+
+    @Param({"12", "100", "1000"})
+    public int historyLength;
+
+    private final Gson gson = new Gson();
+    private final ChatCompletionCodec codec = new ChatCompletionCodec();
+    private List<FakePlayers.ChatMessage> history;
+    private final PromptBuilder promptBuilder = new PromptBuilder(300);
+    private String systemPrompt;
+    private String prompt;
+    private String responseJson;
+    private String reasoningAnswer;
+
+    @Setup
+    public void setup() {
+        RecentMessageBuffer buffer = new RecentMessageBuffer(historyLength, 15 * 60 * 1000);
+        for (int i = 0; i < historyLength; i++) {
+            buffer.add("<Player" + (i % 7) + "> anyone got spare iron, my farm broke again " + i);
+        }
+        history = buffer.snapshot();
+        systemPrompt = promptBuilder.systemPrompt("sarcastic and insulting", "standard");
+        prompt = promptBuilder.chatPrompt("KampferWolf", history);
+
+        StringBuilder reasoning = new StringBuilder();
+        for (int i = 0; i < 30; i++) {
+            reasoning.append("Okay, the player wants iron. I should be sarcastic about it.\n\n");
+        }
+        reasoning.append("lol just mine it yourself\nlol just mine it yourself");
+        reasoningAnswer = reasoning.toString();
+
+        JsonObject message = new JsonObject();
+        message.addProperty("role", "assistant");
+        message.addProperty("content", reasoningAnswer);
+        JsonObject choice = new JsonObject();
+        choice.add("message", message);
+        JsonArray choices = new JsonArray();
+        choices.add(choice);
+        JsonObject response = new JsonObject();
+        response.addProperty("id", "gen-123");
+        response.addProperty("model", "deepseek/deepseek-r1-distill-llama-70b:free");
+        response.add("choices", choices);
+        responseJson = gson.toJson(response);
+    }
+
+    @Benchmark
+    public String buildPrompt() {
+        return promptBuilder.chatPrompt("KampferWolf", history);
+    }
+
+    @Benchmark
+    public String buildPromptCold() {
+        return new PromptBuilder(300).chatPrompt("KampferWolf", history);
+    }
+
+    @Benchmark
+    public String encodeRequest() {
+        return codec.encodeRequest("deepseek/deepseek-r1-distill-llama-70b:free", systemPrompt, prompt, false);
+    }
+
+    @Benchmark
+    public String decodeResponse() throws IOException {
+        return ChatCompletionCodec.decode(responseJson).content.trim();
+    }
+
+    @Benchmark
+    public String extractFinalAnswer() {
+        return ChatAI.extractFinalAnswer(reasoningAnswer);
+    }
+}
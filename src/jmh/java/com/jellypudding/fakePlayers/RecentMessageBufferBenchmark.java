@@ -0,0 +1,111 @@
+package com.jellypudding.fakePlayers;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Several chat threads writing while ChatAI threads take snapshots. The linked-list group is the
+// old add/cleanup/trim logic behind a lock, which is the cheapest way to make it thread-safe.
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RecentMessageBufferBenchmark {
+
+    // 12 is what the plugin uses; the larger sizes show how snapshot cost grows with history.
+    @Param({"12", "100", "1000"})
+    public int historyLength;
+
+    private static final long EXPIRATION_MS = 15 * 60 * 1000;
+
+    private RecentMessageBuffer ring;
+    private LinkedList<FakePlayers.ChatMessage> lockedList;
+
+    @Setup
+    public void setup() {
+        ring = new RecentMessageBuffer(historyLength, EXPIRATION_MS);
+        lockedList = new LinkedList<>();
+        for (int i = 0; i < historyLength; i++) {
+            ring.add("<Steve> warmup message " + i);
+            lockedList.add(new FakePlayers.ChatMessage(i, "<Steve> warmup message " + i));
+        }
+    }
+
+    @Benchmark
+    @Group("ring_4writers")
+    @GroupThreads(4)
+    public void ringWrite4() {
+        ring.add("<Alex> anyone selling diamonds");
+    }
+
+    @Benchmark
+    @Group("ring_4writers")
+    @GroupThreads(2)
+    public void ringSnapshot4(Blackhole bh) {
+        bh.consume(ring.snapshot());
+    }
+
+    @Benchmark
+    @Group("ring_8writers")
+    @GroupThreads(8)
+    public void ringWrite8() {
+        ring.add("<Alex> anyone selling diamonds");
+    }
+
+    @Benchmark
+    @Group("ring_8writers")
+    @GroupThreads(2)
+    public void ringSnapshot8(Blackhole bh) {
+        bh.consume(ring.snapshot());
+    }
+
+    @Benchmark
+    @Group("locked_4writers")
+    @GroupThreads(4)
+    public void lockedWrite4() {
+        lockedAdd("<Alex> anyone selling diamonds");
+    }
+
+    @Benchmark
+    @Group("locked_4writers")
+    @GroupThreads(2)
+    public void lockedSnapshot4(Blackhole bh) {
+        bh.consume(lockedSnapshot());
+    }
+
+    @Benchmark
+    @Group("locked_8writers")
+    @GroupThreads(8)
+    public void lockedWrite8() {
+        lockedAdd("<Alex> anyone selling diamonds");
+    }
+
+    @Benchmark
+    @Group("locked_8writers")
+    @GroupThreads(2)
+    public void lockedSnapshot8(Blackhole bh) {
+        bh.consume(lockedSnapshot());
+    }
+
+    private void lockedAdd(String message) {
+        synchronized (lockedList) {
+            lockedList.add(new FakePlayers.ChatMessage(0, message));
+            long now = System.currentTimeMillis();
+            while (!lockedList.isEmpty() && now - lockedList.peek().timestamp > EXPIRATION_MS) {
+                lockedList.poll();
+            }
+            while (lockedList.size() > historyLength) {
+                lockedList.poll();
+            }
+        }
+    }
+
+    private List<FakePlayers.ChatMessage> lockedSnapshot() {
+        synchronized (lockedList) {
+            return new ArrayList<>(lockedList);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.jellypudding.fakePlayers;
+
+import com.destroystokyo.paper.event.server.PaperServerListPingEvent;
+import net.minecraft.network.protocol.game.ClientboundPlayerInfoUpdatePacket;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+// Work that scales with the number of fakes: the server list ping entries and the tab-list
+// roster sent to a joining player. Only plain objects are built, so no server is needed.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RosterBenchmark {
+
+    @Param({"10", "100", "1000", "10000"})
+    public int rosterSize;
+
+    private Map<String, FakePlayers.PlayerFakeAllData> fakePlayerData;
+    private Set<String> online;
+
+    @Setup
+    public void setup() {
+        fakePlayerData = new HashMap<>();
+        online = new HashSet<>();
+        for (int i = 0; i < rosterSize; i++) {
+            String name = "Fake" + i;
+            fakePlayerData.put(name, new FakePlayers.PlayerFakeAllData(name, "texture" + i, "signature" + i,
+                    "cynical", "perfect", "deepseek/deepseek-r1-distill-llama-70b:free", List.of()));
+            online.add(name);
+        }
+    }
+
+    // The vanilla server list shows a sample of 12 players.
+    @Benchmark
+    public List<PaperServerListPingEvent.ListedPlayerInfo> pingSample() {
+        return FakePlayers.listedPlayers(online, fakePlayerData::get, 12);
+    }
+
+    @Benchmark
+    public List<PaperServerListPingEvent.ListedPlayerInfo> pingFull() {
+        return FakePlayers.listedPlayers(online, fakePlayerData::get, Integer.MAX_VALUE);
+    }
+
+    // Mirrors onPlayerJoin building the roster packet entries.
+    @Benchmark
+    public List<ClientboundPlayerInfoUpdatePacket.Entry> joinRoster() {
+        List<ClientboundPlayerInfoUpdatePacket.Entry> roster = new ArrayList<>(online.size());
+        for (String name : online) {
+            FakePlayers.PlayerFakeAllData data = fakePlayerData.get(name);
+            if (data != null) {
+                roster.add(data.tabListEntry(42));
+            }
+        }
+        return roster;
+    }
+}
@@ -0,0 +1,73 @@
+package com.jellypudding.fakePlayers;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// Compares the single-pass sanitizer and Aho-Corasick refusal filter with the replaceAll and
+// contains chains they replaced.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SanitizerBenchmark {
+
+    @Param({"short", "reasoning"})
+    public String shape;
+
+    private String speaker;
+    private String response;
+    private PhraseMatcher refusalFilter;
+
+    @Setup
+    public void setup() {
+        speaker = "KampferWolf";
+        if (shape.equals("short")) {
+            response = "\"*KampferWolf*: lmao who even builds with dirt anymore\"";
+        } else {
+            StringBuilder reasoning = new StringBuilder("<think>\n");
+            for (int i = 0; i < 40; i++) {
+                reasoning.append("Okay, so the player asked about the nether and I should sound annoyed. ");
+            }
+            reasoning.append("\n</think>\nKampferWolf: nether is overrated tbh \u2014 just use a boat\nsecond line nobody sees");
+            response = reasoning.toString();
+        }
+        refusalFilter = new PhraseMatcher(ChatAI.DEFAULT_REFUSAL_PHRASES);
+    }
+
+    @Benchmark
+    public String regexChain() {
+        return response
+                .replaceAll("(?i)<[^>]*>", "")
+                .replaceAll("(?i)\\*?" + speaker + "\\*?:\\s*", "")
+                .replaceAll("^[\"']|[\"']$", "")
+                .replaceAll("\n.*", "")
+                .replaceAll("\"\"", "")
+                .replaceAll("[^\\p{ASCII}]", "")
+                .trim();
+    }
+
+    @Benchmark
+    public String singlePass() {
+        return ResponseSanitizer.sanitize(speaker, response);
+    }
+
+    @Benchmark
+    public boolean containsChain() {
+        String lower = response.toLowerCase();
+        return lower.contains("i cannot generate a response") ||
+                lower.contains("i cannot provide") ||
+                lower.contains("i cannot generate") ||
+                lower.contains("i cannot comply") ||
+                lower.contains("i refuse to") ||
+                lower.contains("i cannot do that") ||
+                lower.contains("as an ai") ||
+                lower.contains("in this game chat scenario") ||
+                lower.contains("i need to figure out how to respond as") ||
+                lower.contains("is there anything else i can help you with");
+    }
+
+    @Benchmark
+    public boolean ahoCorasick() {
+        return refusalFilter.containsAny(response);
+    }
+}
@@ -0,0 +1,158 @@
+package com.jellypudding.fakePlayers;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Drives ChatAI.generateResponse with N simulated chatters against MockOpenRouterServer (or any
+// endpoint given with url=...) and reports throughput, tail latency and breaker changes.
+// Run with ./gradlew loadTest --args="chatters=50 durationSeconds=60 errorRate=0.1"
+// Options: chatters, durationSeconds, thinkTimeMs, maxInFlight, timeoutSeconds, streaming,
+// model, fallbackModel, url, verbose, plus every MockOpenRouterServer.Settings option.
+public final class LoadTest {
+
+    private LoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseArgs(args);
+        int chatters = Integer.parseInt(options.getOrDefault("chatters", "20"));
+        long durationMs = Long.parseLong(options.getOrDefault("durationSeconds", "60")) * 1000;
+        long thinkTimeMs = Long.parseLong(options.getOrDefault("thinkTimeMs", "1000"));
+        int maxInFlight = Integer.parseInt(options.getOrDefault("maxInFlight", "4"));
+        int timeoutSeconds = Integer.parseInt(options.getOrDefault("timeoutSeconds", "10"));
+        boolean streaming = Boolean.parseBoolean(options.getOrDefault("streaming", "false"));
+        String model = options.getOrDefault("model", "deepseek/deepseek-r1-distill-llama-70b:free");
+        String fallbackModel = options.getOrDefault("fallbackModel", "mistralai/ministral-8b");
+
+        MockOpenRouterServer mock = null;
+        String url = options.get("url");
+        if (url == null) {
+            mock = new MockOpenRouterServer(0, MockOpenRouterServer.Settings.fromArgs(options));
+            mock.start();
+            url = mock.url();
+        }
+
+        Logger logger = Logger.getLogger("LoadTest");
+        if (!Boolean.parseBoolean(options.getOrDefault("verbose", "false"))) {
+            logger.setLevel(Level.SEVERE);
+        }
+
+        Map<String, FakePlayers.PlayerFakeAllData> fakePlayerData = new HashMap<>();
+        for (int i = 0; i < chatters; i++) {
+            String name = "Chatter" + i;
+            fakePlayerData.put(name, new FakePlayers.PlayerFakeAllData(name, "texture", "signature",
+                    "sarcastic", "normal", model, List.of(fallbackModel)));
+        }
+
+        Path healthFile = Files.createTempFile("model-health", ".properties");
+        Files.delete(healthFile);
+        ModelRouter router = new ModelRouter(logger, healthFile);
+        Metrics metrics = new Metrics();
+        ChatAI chatAI = new ChatAI("load-test", url, logger, fakePlayerData::get, maxInFlight, 0,
+                Duration.ofSeconds(timeoutSeconds), new OffTopicPool(0, 0), streaming,
+                ChatAI.DEFAULT_REFUSAL_PHRASES, router, metrics, new PromptBuilder(300));
+        RecentMessageBuffer recentMessages = new RecentMessageBuffer(12, 15 * 60 * 1000);
+
+        System.out.println("Load test: " + chatters + " chatters for " + durationMs / 1000 + "s against " + url);
+
+        AtomicLong attempts = new AtomicLong();
+        AtomicLong responses = new AtomicLong();
+        List<Long> latenciesMs = Collections.synchronizedList(new ArrayList<>());
+        long start = System.currentTimeMillis();
+        long deadline = start + durationMs;
+
+        List<Thread> threads = new ArrayList<>(chatters);
+        for (String name : fakePlayerData.keySet()) {
+            threads.add(Thread.ofVirtual().start(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (System.currentTimeMillis() < deadline) {
+                    attempts.incrementAndGet();
+                    long requestStart = System.nanoTime();
+                    String response = chatAI.generateResponse(name, recentMessages.snapshot());
+                    if (response != null) {
+                        latenciesMs.add((System.nanoTime() - requestStart) / 1_000_000);
+                        responses.incrementAndGet();
+                        recentMessages.add("<" + name + "> " + response);
+                    }
+                    try {
+                        Thread.sleep(random.nextLong(thinkTimeMs + 1));
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }));
+        }
+
+        // Print breaker changes as they happen.
+        List<String> lastHealth = router.describe();
+        while (System.currentTimeMillis() < deadline) {
+            Thread.sleep(1000);
+            List<String> health = router.describe();
+            for (String line : health) {
+                if (!lastHealth.contains(line) && !line.contains("CLOSED")) {
+                    System.out.printf("[%5.1fs] %s%n", (System.currentTimeMillis() - start) / 1000.0, line);
+                }
+            }
+            lastHealth = health;
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        double elapsedSeconds = (System.currentTimeMillis() - start) / 1000.0;
+
+        List<Long> sorted;
+        synchronized (latenciesMs) {
+            sorted = new ArrayList<>(latenciesMs);
+        }
+        Collections.sort(sorted);
+
+        System.out.println();
+        System.out.printf("Attempts: %d, usable responses: %d (%.1f%%)%n", attempts.get(), responses.get(),
+                attempts.get() == 0 ? 0.0 : 100.0 * responses.get() / attempts.get());
+        System.out.printf("Throughput: %.2f responses/s%n", responses.get() / elapsedSeconds);
+        System.out.printf("Latency ms: p50 %d, p90 %d, p99 %d, max %d%n",
+                percentile(sorted, 0.5), percentile(sorted, 0.9), percentile(sorted, 0.99),
+                sorted.isEmpty() ? 0 : sorted.get(sorted.size() - 1));
+        if (mock != null) {
+            System.out.println("Mock server: " + mock.getRequestCount() + " requests, "
+                    + mock.getInjectedFaultCount() + " injected faults");
+            mock.stop();
+        }
+        for (String line : metrics.statsLines()) {
+            if (!line.startsWith("Tab-list") && !line.startsWith("Main-thread")) {
+                System.out.println(line);
+            }
+        }
+        System.out.println("Model health:");
+        for (String line : router.describe()) {
+            System.out.println("  " + line);
+        }
+        System.exit(0);
+    }
+
+    private static long percentile(List<Long> sorted, double q) {
+        if (sorted.isEmpty()) {
+            return 0;
+        }
+        int index = (int) Math.ceil(q * sorted.size()) - 1;
+        return sorted.get(Math.max(0, Math.min(sorted.size() - 1, index)));
+    }
+
+    // Parses key=value arguments.
+    static Map<String, String> parseArgs(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (equals > 0) {
+                options.put(arg.substring(0, equals), arg.substring(equals + 1));
+            }
+        }
+        return options;
+    }
+}
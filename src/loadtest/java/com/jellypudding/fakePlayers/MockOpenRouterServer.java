@@ -0,0 +1,224 @@
+package com.jellypudding.fakePlayers;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Local stand-in for the OpenRouter chat completions endpoint, built on the JDK HttpServer.
+// Each request draws a latency from the configured distribution and may be turned into a
+// 500, a 429 or a malformed body. Streaming requests are answered as server-sent events with
+// a delay between chunks. One model can be made to fail for a while to exercise the breakers.
+// Run standalone with: java ... MockOpenRouterServer port=8089 latency=lognormal errorRate=0.05
+public class MockOpenRouterServer {
+
+    public static final String PATH = "/api/v1/chat/completions";
+
+    // Every option can be set as key=value on the command line (see fromArgs).
+    public static final class Settings {
+        // fixed, uniform or lognormal
+        public String latency = "lognormal";
+        public long latencyMedianMs = 800;
+        // uniform: +/- this many ms; lognormal: sigma is this divided by 1000.
+        public long latencySpreadMs = 500;
+        public double errorRate = 0.0;
+        public double rateLimitRate = 0.0;
+        public double malformedRate = 0.0;
+        public long streamChunkDelayMs = 40;
+        // This model returns 503 for brokenForSeconds after the server starts.
+        public String brokenModel = "";
+        public long brokenForSeconds = 0;
+
+        public static Settings fromArgs(Map<String, String> args) {
+            Settings settings = new Settings();
+            settings.latency = args.getOrDefault("latency", settings.latency);
+            settings.latencyMedianMs = Long.parseLong(args.getOrDefault("latencyMedianMs", "" + settings.latencyMedianMs));
+            settings.latencySpreadMs = Long.parseLong(args.getOrDefault("latencySpreadMs", "" + settings.latencySpreadMs));
+            settings.errorRate = Double.parseDouble(args.getOrDefault("errorRate", "" + settings.errorRate));
+            settings.rateLimitRate = Double.parseDouble(args.getOrDefault("rateLimitRate", "" + settings.rateLimitRate));
+            settings.malformedRate = Double.parseDouble(args.getOrDefault("malformedRate", "" + settings.malformedRate));
+            settings.streamChunkDelayMs = Long.parseLong(args.getOrDefault("streamChunkDelayMs", "" + settings.streamChunkDelayMs));
+            settings.brokenModel = args.getOrDefault("brokenModel", settings.brokenModel);
+            settings.brokenForSeconds = Long.parseLong(args.getOrDefault("brokenForSeconds", "" + settings.brokenForSeconds));
+            return settings;
+        }
+    }
+
+    private static final String[] WORDS = {
+            "lol", "anyone", "got", "spare", "iron", "my", "base", "is", "way", "too", "far", "from", "spawn",
+            "who", "keeps", "taking", "the", "boats", "nether", "roof", "when", "tbh", "just", "mine", "it"
+    };
+
+    private final Settings settings;
+    private final Gson gson = new Gson();
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final long startedAt = System.currentTimeMillis();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong injectedFaults = new AtomicLong();
+
+    public MockOpenRouterServer(int port, Settings settings) throws IOException {
+        this.settings = settings;
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+        server.createContext(PATH, this::handle);
+        server.setExecutor(executor);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    public String url() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + PATH;
+    }
+
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    public long getInjectedFaultCount() {
+        return injectedFaults.get();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            requests.incrementAndGet();
+            JsonObject request;
+            try {
+                request = gson.fromJson(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8), JsonObject.class);
+            } catch (RuntimeException e) {
+                request = null;
+            }
+            if (request == null || !request.has("model")) {
+                respond(exchange, 400, "{\"error\":{\"message\":\"bad request\"}}");
+                return;
+            }
+            String model = request.get("model").getAsString();
+            boolean stream = request.has("stream") && request.get("stream").getAsBoolean();
+
+            sleep(drawLatencyMs());
+
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            if (model.equals(settings.brokenModel)
+                    && System.currentTimeMillis() - startedAt < settings.brokenForSeconds * 1000) {
+                injectedFaults.incrementAndGet();
+                respond(exchange, 503, "{\"error\":{\"message\":\"model unavailable\"}}");
+                return;
+            }
+            if (random.nextDouble() < settings.rateLimitRate) {
+                injectedFaults.incrementAndGet();
+                exchange.getResponseHeaders().add("Retry-After", "5");
+                respond(exchange, 429, "{\"error\":{\"message\":\"rate limited\"}}");
+                return;
+            }
+            if (random.nextDouble() < settings.errorRate) {
+                injectedFaults.incrementAndGet();
+                respond(exchange, 500, "{\"error\":{\"message\":\"internal error\"}}");
+                return;
+            }
+            boolean malformed = random.nextDouble() < settings.malformedRate;
+            if (malformed) {
+                injectedFaults.incrementAndGet();
+            }
+
+            String reply = randomReply(random);
+            if (stream) {
+                streamReply(exchange, reply, malformed);
+            } else if (malformed) {
+                respond(exchange, 200, "{\"choices\":[{\"message\":{\"content\":\"" + reply);
+            } else {
+                respond(exchange, 200, completion(reply));
+            }
+        }
+    }
+
+    private String completion(String reply) {
+        JsonObject json = gson.fromJson("{\"id\":\"gen-mock\",\"choices\":[{\"message\":{\"role\":\"assistant\"}}]}", JsonObject.class);
+        json.getAsJsonArray("choices").get(0).getAsJsonObject().getAsJsonObject("message").addProperty("content", reply);
+        return gson.toJson(json);
+    }
+
+    private void streamReply(HttpExchange exchange, String reply, boolean malformed) throws IOException {
+        exchange.getResponseHeaders().add("Content-Type", "text/event-stream");
+        exchange.sendResponseHeaders(200, 0);
+        OutputStream out = exchange.getResponseBody();
+        String[] words = reply.split(" ");
+        for (int i = 0; i < words.length; i++) {
+            String piece = (i == 0 ? "" : " ") + words[i];
+            JsonObject delta = new JsonObject();
+            delta.addProperty("content", piece);
+            String chunk = malformed && i == words.length / 2
+                    ? "{\"choices\":[{\"delta\":"
+                    : "{\"choices\":[{\"delta\":" + gson.toJson(delta) + "}]}";
+            out.write(("data: " + chunk + "\n\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            sleep(settings.streamChunkDelayMs);
+        }
+        out.write("data: [DONE]\n\n".getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+
+    private long drawLatencyMs() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return switch (settings.latency) {
+            case "fixed" -> settings.latencyMedianMs;
+            case "uniform" -> Math.max(0, settings.latencyMedianMs
+                    + random.nextLong(-settings.latencySpreadMs, settings.latencySpreadMs + 1));
+            default -> Math.round(settings.latencyMedianMs
+                    * Math.exp(random.nextGaussian() * settings.latencySpreadMs / 1000.0));
+        };
+    }
+
+    private static String randomReply(ThreadLocalRandom random) {
+        int length = random.nextInt(4, 12);
+        StringBuilder reply = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            if (i > 0) {
+                reply.append(' ');
+            }
+            reply.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return reply.toString();
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = LoadTest.parseArgs(args);
+        int port = Integer.parseInt(options.getOrDefault("port", "8089"));
+        MockOpenRouterServer server = new MockOpenRouterServer(port, Settings.fromArgs(options));
+        server.start();
+        System.out.println("Mock OpenRouter listening on " + server.url());
+    }
+}
@@ -1,209 +1,346 @@
 package com.jellypudding.fakePlayers;
 
-import com.google.gson.Gson;
-import com.google.gson.JsonArray;
-import com.google.gson.JsonObject;
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
 import java.util.logging.Logger;
-import java.util.stream.Collectors;
 
 public class ChatAI {
     private final String apiKey;
+    private final URI apiUrl;
     private final HttpClient client;
-    private final Gson gson;
+    private final ChatCompletionCodec codec = new ChatCompletionCodec();
     private final Logger logger;
-    private final Map<String, FakePlayers.PlayerFakeAllData> fakePlayerData;
-    // Track consecutive failures per model
-    private final Map<String, Integer> consecutiveFailures = new ConcurrentHashMap<>();
-    // Track "disabled until" per model
-    private final Map<String, Long> modelDisabledUntil = new ConcurrentHashMap<>();
-    private static final int MAX_CONSECUTIVE_FAILURES = 4;
-    // How long to disable a model if we exceed consecutive failures, in milliseconds (24 hours)
-    private static final long DISABLE_DURATION_MS = 24 * 60 * 60 * 1000L;
-    private static final String API_URL = "https://openrouter.ai/api/v1/chat/completions";
-
-    public ChatAI(String apiKey, Logger logger, Map<String, FakePlayers.PlayerFakeAllData> fakePlayerData) {
+    // Looks up a fake player's profile by name.
+    private final Function<String, FakePlayers.PlayerFakeAllData> profiles;
+    // Chooses a model from each player's pool and tracks per-model health.
+    private final ModelRouter router;
+    private final Metrics metrics;
+    private final PromptBuilder promptBuilder;
+    // Used when api-url is missing from the config.
+    public static final String DEFAULT_API_URL = "https://openrouter.ai/api/v1/chat/completions";
+    // Used when refusal-phrases is missing from the config.
+    public static final List<String> DEFAULT_REFUSAL_PHRASES = List.of(
+            "i cannot generate a response",
+            "i cannot provide",
+            "i cannot generate",
+            "i cannot comply",
+            "i refuse to",
+            "i cannot do that",
+            "as an ai",
+            "in this game chat scenario",
+            "i need to figure out how to respond as",
+            "is there anything else i can help you with"
+    );
+    private final PhraseMatcher refusalFilter;
+    // Caps how many requests can be waiting on OpenRouter at once; extra requests are dropped.
+    private final Semaphore inFlightPermits;
+    private final int maxInFlight;
+    // Extra permits only whisper replies may use, so ambient chat can never hold them up.
+    private final Semaphore priorityPermits;
+    private final int maxPriority;
+    private final Duration requestTimeout;
+    private final OffTopicPool offTopicPool;
+    // When true, responses are streamed and cut off at the first usable line.
+    private final boolean streaming;
+
+    public ChatAI(String apiKey, String apiUrl, Logger logger, Function<String, FakePlayers.PlayerFakeAllData> profiles,
+                  int maxInFlight, int priorityPermits, Duration requestTimeout, OffTopicPool offTopicPool, boolean streaming,
+                  List<String> refusalPhrases, ModelRouter router, Metrics metrics, PromptBuilder promptBuilder) {
         this.apiKey = apiKey;
+        this.apiUrl = URI.create(apiUrl);
         this.client = HttpClient.newHttpClient();
-        this.gson = new Gson();
         this.logger = logger;
-        this.fakePlayerData = fakePlayerData;
+        this.profiles = profiles;
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.inFlightPermits = new Semaphore(this.maxInFlight);
+        this.maxPriority = Math.max(0, priorityPermits);
+        this.priorityPermits = new Semaphore(this.maxPriority);
+        this.requestTimeout = requestTimeout;
+        this.offTopicPool = offTopicPool;
+        this.streaming = streaming;
+        this.refusalFilter = new PhraseMatcher(refusalPhrases);
+        this.router = router;
+        this.metrics = metrics;
+        this.promptBuilder = promptBuilder;
+    }
+
+    // Blocking convenience wrapper around generateResponseAsync.
+    public String generateResponse(String playerName, List<FakePlayers.ChatMessage> recentMessages) {
+        return generateResponseAsync(playerName, recentMessages)
+                .exceptionally(e -> null)
+                .join();
     }
 
-    // Note: We now expect recentMessages to be a queue of FakePlayers.ChatMessage objects.
-    public String generateResponse(String playerName, Queue<FakePlayers.ChatMessage> recentMessages) {
-        // Join only the message texts from recentMessages (which have been cleaned already)
-        String context = recentMessages.stream()
-                .map(chatMsg -> chatMsg.message)
-                .collect(Collectors.joining("\n"));
+    // Number of requests currently waiting on OpenRouter.
+    public int getInFlightCount() {
+        return maxInFlight - inFlightPermits.availablePermits() + maxPriority - priorityPermits.availablePermits();
+    }
+
+    // recentMessages is an immutable snapshot taken from RecentMessageBuffer.
+    // The returned future completes with null when no usable response was produced, and
+    // exceptionally if the request timed out. Cancelling it aborts the HTTP request.
+    public CompletableFuture<String> generateResponseAsync(String playerName, List<FakePlayers.ChatMessage> recentMessages) {
+        return generateResponseAsync(playerName, recentMessages, List.of());
+    }
 
-        FakePlayers.PlayerFakeAllData playerData = fakePlayerData.get(playerName);
+    // memories are lines from ConversationMemory about the player being answered, or empty.
+    public CompletableFuture<String> generateResponseAsync(String playerName, List<FakePlayers.ChatMessage> recentMessages,
+                                                           List<String> memories) {
+        FakePlayers.PlayerFakeAllData playerData = profiles.apply(playerName);
 
         if (playerData == null) {
             logger.warning("No data found for player: " + playerName);
-            return null;
+            return CompletableFuture.completedFuture(null);
         }
 
-        // The model you want to use
-        String model = playerData.model;
-
-        if (isModelDisabled(model)) {
-            // Try fallback
-            for (String possibleFallback : List.of(
-                    "deepseek/deepseek-r1-distill-llama-70b:free",
-                    "mistralai/ministral-8b" // not free, but we likely exceeded free usage cap.
-            )) {
-                if (!isModelDisabled(possibleFallback)) {
-                    logger.info("Using fallback model '" + possibleFallback + "' for " + playerName);
-                    model = possibleFallback;
-                    break;
-                }
-            }
-            if (isModelDisabled(model)) {
-                return null;
+        // 5% chance for off-topic comment
+        boolean makeOffTopic = Math.random() < 0.05;
+
+        if (makeOffTopic) {
+            // Off-topic lines don't depend on chat context, so a prefetched one can be used as-is.
+            String prefetched = offTopicPool.poll(playerData.personality);
+            if (prefetched != null) {
+                return CompletableFuture.completedFuture(prefetched);
             }
         }
 
-        // 5% chance for off-topic comment
-        boolean makeOffTopic = Math.random() < 0.05;
+        String systemPrompt = null;
+        String prompt;
+        if (makeOffTopic) {
+            prompt = offTopicPrompt(playerName, playerData.personality);
+        } else {
+            systemPrompt = promptBuilder.systemPrompt(playerData.personality, playerData.textStyle);
+            prompt = promptBuilder.chatPrompt(playerName, recentMessages, memories);
+        }
 
-        String prompt = makeOffTopic ?
-                String.format(
-                        "You are %s, a minecraft player. Generate ONE short message like you're chatting on a game server. " +
-                                "Be %s. Talk about: your day, games, random thoughts, or complaints. " +
-                                "Write like a casual gamer - use abbreviations occasionally, be informal.",
-                        playerName, playerData.personality
-                ) :
-                String.format(
-                        "You are roleplaying as a player named %s. \n\nRecent chat:\n%s\n\n" +
-                                "Now respond with a short, casual message that follows naturally. Do not use any emojis or special characters. " +
-                                "Be %s. IMPORTANT: You must respond as %s, not as any other player.",
-                        playerName, context, playerData.personality, playerName
-                );
+        return requestCompletion(playerData.models, systemPrompt, prompt, playerName, false);
+    }
 
-        try {
-            Map<String, Object> requestBody;
-            if (model.equals("mistralai/ministral-8b")) {
-                requestBody = Map.of(
-                        "model", model,
-                        "messages", List.of(
-                                Map.of(
-                                        "role", "user",
-                                        "content", prompt
-                                )
-                        ),
-                        "temperature", 0.6,  // Using Ministral's recommended median
-                        "top_p", 1.0,
-                        "repetition_penalty", 1.0,
-                        "max_tokens", 50
-                );
-            } else {
-                requestBody = Map.of(
-                        "model", model,
-                        "messages", List.of(
-                                Map.of(
-                                        "role", "user",
-                                        "content", prompt
-                                )
-                        ),
-                        "temperature", 0.83
-                );
-            }
+    // A reply to a private conversation. conversation is the pair's history, oldest first, ending
+    // with the whisper being answered. Uses the priority permits before the shared ones.
+    public CompletableFuture<String> generateWhisperAsync(String fakeName, String playerName,
+                                                          List<FakePlayers.ChatMessage> conversation, List<String> memories) {
+        FakePlayers.PlayerFakeAllData playerData = profiles.apply(fakeName);
+        if (playerData == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return requestCompletion(playerData.models,
+                promptBuilder.systemPrompt(playerData.personality, playerData.textStyle),
+                promptBuilder.whisperPrompt(fakeName, playerName, conversation, memories),
+                fakeName, true);
+    }
 
+    // Takes a prefetched off-topic line for this player's personality, or null if none is ready.
+    public String pollOffTopic(String playerName) {
+        FakePlayers.PlayerFakeAllData playerData = profiles.apply(playerName);
+        return playerData != null ? offTopicPool.poll(playerData.personality) : null;
+    }
+
+    // Generates one context-free line for the player's personality and adds it to the pool as
+    // soon as it arrives. The returned future completes with the line, or null.
+    public CompletableFuture<String> prefetchOffTopic(FakePlayers.PlayerFakeAllData playerData) {
+        return requestCompletion(playerData.models, null, offTopicPrompt(playerData.name, playerData.personality), playerData.name, false)
+                .thenApply(line -> {
+                    if (line != null) {
+                        offTopicPool.offer(playerData.personality, line);
+                    }
+                    return line;
+                });
+    }
+
+    private String offTopicPrompt(String playerName, String personality) {
+        return String.format(
+                "You are %s, a minecraft player. Generate ONE short message like you're chatting on a game server. " +
+                        "Be %s. Talk about: your day, games, random thoughts, or complaints. " +
+                        "Write like a casual gamer - use abbreviations occasionally, be informal.",
+                playerName, personality
+        );
+    }
+
+    // systemPrompt may be null, in which case only the user message is sent.
+    private CompletableFuture<String> requestCompletion(List<String> models, String systemPrompt, String prompt,
+                                                        String playerName, boolean priority) {
+        Semaphore permits = priority && priorityPermits.tryAcquire() ? priorityPermits
+                : inFlightPermits.tryAcquire() ? inFlightPermits
+                : null;
+        if (permits == null) {
+            logger.fine("ChatAI: " + maxInFlight + " requests already in flight, skipping response for " + playerName);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        // Chosen only once a permit is held, so a half-open probe is never dropped unsent.
+        ModelRouter.Selection selection = router.select(models);
+        if (selection == null) {
+            permits.release();
+            logger.fine("ChatAI: Every model for " + playerName + " is disabled, skipping response.");
+            return CompletableFuture.completedFuture(null);
+        }
+        String model = selection.model;
+        if (!model.equals(models.get(0))) {
+            logger.fine("ChatAI: Using fallback model '" + model + "' for " + playerName);
+        }
+        metrics.recordRequest(model);
+
+        String requestBody = codec.encodeRequest(model, systemPrompt, prompt, streaming);
+
+        long startNanos = System.nanoTime();
+        CompletableFuture<?> call;
+        CompletableFuture<String> result;
+        try {
             HttpRequest request = HttpRequest.newBuilder()
-                    .uri(URI.create(API_URL))
+                    .uri(apiUrl)
                     .header("Content-Type", "application/json")
                     .header("Authorization", "Bearer " + apiKey)
-                    .POST(HttpRequest.BodyPublishers.ofString(gson.toJson(requestBody)))
+                    .POST(HttpRequest.BodyPublishers.ofString(requestBody))
                     .build();
 
-            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
-
-            if (response.statusCode() == 200) {
-                try {
-                    JsonObject jsonResponse = gson.fromJson(response.body(), JsonObject.class);
-                    if (jsonResponse == null) {
-                        handleFailure(model);
-                        logger.warning("ChatAI: JSON response is null despite status 200.");
-                        return null;
+            if (streaming) {
+                StreamingCompletion stream = new StreamingCompletion(playerName);
+                call = client.sendAsync(request, responseInfo -> {
+                    if (responseInfo.statusCode() != 200) {
+                        stream.fail(new java.io.IOException("status code " + responseInfo.statusCode()));
+                        return HttpResponse.BodySubscribers.discarding();
                     }
-                    if (!jsonResponse.has("choices")) {
-                        handleFailure(model);
-                        logger.warning("ChatAI: 'choices' field missing in JSON response.");
-                        return null;
+                    return HttpResponse.BodySubscribers.fromLineSubscriber(stream);
+                });
+                call.whenComplete((response, error) -> {
+                    if (error != null) {
+                        stream.fail(error);
                     }
-
-                    JsonArray choices = jsonResponse.getAsJsonArray("choices");
-                    if (choices.isEmpty()) {
-                        handleFailure(model);
-                        logger.warning("ChatAI: 'choices' array is empty in JSON response.");
-                        return null;
+                });
+                result = stream.result().handle((content, error) -> {
+                    if (error != null) {
+                        return handleRequestError(model, error);
                     }
-
-                    JsonObject firstChoice = choices.get(0).getAsJsonObject();
-                    if (firstChoice == null || !firstChoice.has("message")) {
-                        handleFailure(model);
-                        logger.warning("ChatAI: 'message' object missing in first choice.");
-                        return null;
+                    long firstLineNanos = stream.timeToFirstLineNanos();
+                    if (firstLineNanos >= 0) {
+                        metrics.recordFirstLine(model, firstLineNanos);
                     }
-
-                    JsonObject message = firstChoice.getAsJsonObject("message");
-                    if (message == null || !message.has("content")) {
-                        handleFailure(model);
-                        logger.warning("ChatAI: 'content' missing in 'message' object.");
+                    if (content == null) {
+                        // The model answered, just not with something postable.
+                        recordSuccess(model, startNanos);
+                        logger.fine("ChatAI: First line from model '" + model + "' is not usable, stream cut off.");
                         return null;
                     }
-
-                    String content = message.get("content").getAsString().trim();
-
-                    if (content.isEmpty()) {
-                        handleFailure(model);
-                        logger.warning("ChatAI: Model '" + model + "' returned empty content. Returning null.");
-                        return null;
+                    return acceptContent(model, content.trim(), startNanos);
+                });
+            } else {
+                // Kept as bytes and decoded while parsing, rather than copied into a String first.
+                CompletableFuture<HttpResponse<byte[]>> bufferedCall = client.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray());
+                call = bufferedCall;
+                result = bufferedCall.handle((response, error) -> {
+                    if (error != null) {
+                        return handleRequestError(model, error);
                     }
+                    return parseResponse(model, response, startNanos);
+                });
+            }
+        } catch (Exception e) {
+            permits.release();
+            handleFailure(model);
+            logger.warning("ChatAI: Error generating response: " + e.getMessage());
+            return CompletableFuture.completedFuture(null);
+        }
 
-                    if (model.equals("deepseek/deepseek-r1-distill-llama-70b:free")) {
-                        content = extractFinalAnswer(content);
-                    }
+        // The only timeout on the request. HttpRequest.timeout is left unset so a timeout can't
+        // also surface as an HttpTimeoutException and be counted as an ordinary failure.
+        result.orTimeout(requestTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        result.whenComplete((content, error) -> {
+            permits.release();
+            // A cut-off stream never completes its HTTP future, and a cancelled or timed out
+            // request should stop the exchange, so the call is always cancelled here.
+            call.cancel(true);
+            if (error instanceof TimeoutException) {
+                router.recordFailure(model);
+                metrics.recordTimeout(model);
+                logger.warning("ChatAI: Request to model '" + model + "' timed out after "
+                        + requestTimeout.toSeconds() + "s.");
+            }
+            // Frees the half-open probe slot if this probe was cancelled before an outcome; no-op
+            // once it succeeded or failed. Other requests leave a running probe alone.
+            if (selection.probe) {
+                router.recordAbandoned(model);
+            }
+        });
+        return result;
+    }
 
-                    String lower = content.toLowerCase();
-                    if (lower.contains("i cannot generate a response") ||
-                            lower.contains("i cannot provide") ||
-                            lower.contains("i cannot generate") ||
-                            lower.contains("i cannot comply") ||
-                            lower.contains("i refuse to") ||
-                            lower.contains("i cannot do that") ||
-                            lower.contains("as an ai") ||
-                            lower.contains("in this game chat scenario") ||
-                            lower.contains("i need to figure out how to respond as") ||
-                            lower.contains("is there anything else i can help you with")) {
-                        logger.info("ChatAI: Model '" + model + "' returned a disclaimer/refusal text. Returning null instead.");
-                        return null;
-                    }
+    private String handleRequestError(String model, Throwable error) {
+        // Cancellation and timeouts are accounted for when the result completes.
+        if (!(error instanceof CancellationException)) {
+            handleFailure(model);
+            logger.warning("ChatAI: Error generating response: " + error.getMessage());
+        }
+        return null;
+    }
 
-                    resetFailureCount(model);
-                    return content;
-                } catch (Exception e) {
+    private String parseResponse(String model, HttpResponse<byte[]> response, long startNanos) {
+        if (response.statusCode() == 200) {
+            try {
+                ChatCompletionCodec.Completion completion = ChatCompletionCodec.decode(new InputStreamReader(
+                        new ByteArrayInputStream(response.body()), StandardCharsets.UTF_8));
+                metrics.recordTokens(model, completion.promptTokens, completion.completionTokens);
+                if (completion.error != null) {
                     handleFailure(model);
-                    logger.warning("ChatAI: Error parsing API response: " + e.getMessage());
+                    logger.warning("ChatAI: API returned an error despite status 200: " + completion.error);
+                    return null;
                 }
-            } else {
+                if (completion.content == null) {
+                    handleFailure(model);
+                    logger.warning("ChatAI: 'choices[0].message.content' missing in JSON response.");
+                    return null;
+                }
+
+                return acceptContent(model, completion.content.trim(), startNanos);
+            } catch (Exception e) {
                 handleFailure(model);
-                logger.warning("ChatAI: API request failed, status code " + response.statusCode());
+                logger.warning("ChatAI: Error parsing API response: " + e.getMessage());
             }
-        } catch (Exception e) {
+        } else {
             handleFailure(model);
-            logger.warning("ChatAI: Error generating response: " + e.getMessage());
+            logger.warning("ChatAI: API request failed, status code " + response.statusCode());
         }
         return null;
     }
 
-    private String extractFinalAnswer(String response) {
+    // Applies the per-model post-processing and refusal checks to a trimmed response.
+    private String acceptContent(String model, String content, long startNanos) {
+        if (content.isEmpty()) {
+            handleFailure(model);
+            logger.warning("ChatAI: Model '" + model + "' returned empty content. Returning null.");
+            return null;
+        }
+
+        // A refusal still means the model is up, so it counts towards its health.
+        recordSuccess(model, startNanos);
+
+        if (model.equals("deepseek/deepseek-r1-distill-llama-70b:free")) {
+            content = extractFinalAnswer(content);
+        }
+
+        if (refusalFilter.containsAny(content)) {
+            metrics.recordRefusal(model);
+            logger.info("ChatAI: Model '" + model + "' returned a disclaimer/refusal text. Returning null instead.");
+            return null;
+        }
+
+        return content;
+    }
+
+    static String extractFinalAnswer(String response) {
         if (response == null || response.isEmpty()) {
             return response;
         }
@@ -227,32 +364,14 @@ public class ChatAI {
         return nonEmptyLines.get(size - 1);
     }
 
-    private void handleFailure(String model) {
-        consecutiveFailures.merge(model, 1, Integer::sum);
-        int newCount = consecutiveFailures.get(model);
-
-        if (newCount >= MAX_CONSECUTIVE_FAILURES) {
-            long disableUntil = System.currentTimeMillis() + DISABLE_DURATION_MS;
-            modelDisabledUntil.put(model, disableUntil);
-            logger.warning("Model '" + model + "' disabled until " + new java.util.Date(disableUntil)
-                    + " after " + newCount + " consecutive failures.");
-        }
+    private void recordSuccess(String model, long startNanos) {
+        long elapsed = System.nanoTime() - startNanos;
+        router.recordSuccess(model, elapsed);
+        metrics.recordRoundTrip(model, elapsed);
     }
 
-    private void resetFailureCount(String model) {
-        consecutiveFailures.remove(model);
-    }
-
-    private boolean isModelDisabled(String model) {
-        Long disabledUntil = modelDisabledUntil.getOrDefault(model, 0L);
-        long now = System.currentTimeMillis();
-        if (now < disabledUntil) {
-            return true;
-        }
-        if (disabledUntil != 0L) {
-            modelDisabledUntil.remove(model);
-            consecutiveFailures.remove(model);
-        }
-        return false;
+    private void handleFailure(String model) {
+        router.recordFailure(model);
+        metrics.recordFailure(model);
     }
 }
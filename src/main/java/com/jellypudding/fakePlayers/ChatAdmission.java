@@ -0,0 +1,71 @@
+package com.jellypudding.fakePlayers;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+// Decides whether a fake player may start a new generation before any HTTP request is made.
+// A trigger that arrives while a generation for the same fake is still running is merged into
+// it, and one that arrives during the cooldown never reaches ChatAI. The cooldown only starts
+// once ChatAI has actually taken the request. Outcomes are counted in Metrics under this
+// admission's name.
+public class ChatAdmission {
+
+    private final long cooldownMs;
+    private final String name;
+    private final Metrics metrics;
+    private final Map<String, Long> lastAdmitted = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<String>> inFlight = new ConcurrentHashMap<>();
+
+    public ChatAdmission(long cooldownMs, String name, Metrics metrics) {
+        this.cooldownMs = cooldownMs;
+        this.name = name;
+        this.metrics = metrics;
+    }
+
+    // Starts the generation if the speaker is admitted. A merged trigger gets the running
+    // generation's future; only the caller that started it should act on the response, so the
+    // same line isn't posted twice. Returns null when the trigger was absorbed by the cooldown.
+    // Synchronized so the in-flight check and the start happen as one step.
+    public synchronized CompletableFuture<String> submit(String speaker, Supplier<CompletableFuture<String>> generation) {
+        CompletableFuture<String> running = inFlight.get(speaker);
+        if (running != null) {
+            metrics.recordAdmission(name, "merged");
+            return running;
+        }
+        long now = System.currentTimeMillis();
+        Long last = lastAdmitted.get(speaker);
+        if (last != null && now - last < cooldownMs) {
+            metrics.recordAdmission(name, "cooldown");
+            return null;
+        }
+
+        CompletableFuture<String> future = generation.get();
+        if (future.isDone() && future.getNow(null) == null && !future.isCompletedExceptionally()) {
+            // ChatAI declined before sending anything (no free permit, every model disabled), so
+            // the speaker keeps its turn.
+            return future;
+        }
+        lastAdmitted.put(speaker, now);
+        metrics.recordAdmission(name, "admitted");
+        // Callers get a separate future that completes only after the entry is gone, so nothing
+        // can be merged into a generation whose result has already been handed out.
+        CompletableFuture<String> published = new CompletableFuture<>();
+        inFlight.put(speaker, published);
+        future.whenComplete((response, error) -> {
+            inFlight.remove(speaker, published);
+            if (error != null) {
+                published.completeExceptionally(error);
+            } else {
+                published.complete(response);
+            }
+        });
+        return published;
+    }
+
+    // True while a generation for the speaker is running.
+    public boolean isInFlight(String speaker) {
+        return inFlight.containsKey(speaker);
+    }
+}
@@ -0,0 +1,230 @@
+package com.jellypudding.fakePlayers;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Writes chat-completion request bodies and reads responses without building JSON trees.
+// Everything in a request except the messages is fixed per model, so it is encoded once into a
+// template and only the messages are escaped per call. Responses are pulled through a streaming
+// JsonReader that keeps the answer content and token usage and skips everything else, so long
+// reasoning fields are never materialised. Safe to use from any thread.
+class ChatCompletionCodec {
+
+    // The parts of a response or stream chunk that ChatAI uses.
+    static final class Completion {
+        // Null if the first choice had no content.
+        final String content;
+        // Null unless the API returned an error object.
+        final String error;
+        final long promptTokens;
+        final long completionTokens;
+
+        Completion(String content, String error, long promptTokens, long completionTokens) {
+            this.content = content;
+            this.error = error;
+            this.promptTokens = promptTokens;
+            this.completionTokens = completionTokens;
+        }
+    }
+
+    // The request body up to the opening of the messages array, and what closes it.
+    private static final class Template {
+        final String head;
+        final String tail;
+
+        Template(String head, String tail) {
+            this.head = head;
+            this.tail = tail;
+        }
+    }
+
+    // Escapes for ASCII characters; null where the character is written as is.
+    private static final String[] ESCAPES = new String[128];
+    static {
+        for (int c = 0; c < 0x20; c++) {
+            ESCAPES[c] = String.format("\\u%04x", c);
+        }
+        ESCAPES['"'] = "\\\"";
+        ESCAPES['\\'] = "\\\\";
+        ESCAPES['\t'] = "\\t";
+        ESCAPES['\n'] = "\\n";
+        ESCAPES['\r'] = "\\r";
+    }
+
+    // Stops a misbehaving caller from growing the escaped system prompt cache without bound.
+    private static final int MAX_CACHED_SYSTEM_PROMPTS = 64;
+
+    private final Map<String, Template> templates = new ConcurrentHashMap<>();
+    // System prompts come from PromptBuilder's small cache, so their escaped form is kept too.
+    private final Map<String, String> systemMessages = new ConcurrentHashMap<>();
+
+    // systemPrompt may be null.
+    String encodeRequest(String model, String systemPrompt, String prompt, boolean streaming) {
+        Template template = templates.computeIfAbsent(streaming ? model + "\0stream" : model,
+                key -> template(model, streaming));
+        String systemMessage = systemPrompt == null ? null : systemMessage(systemPrompt);
+        StringBuilder out = new StringBuilder(template.head.length() + prompt.length() + prompt.length() / 8 + 32
+                + (systemMessage == null ? 0 : systemMessage.length() + 1) + template.tail.length());
+        out.append(template.head);
+        if (systemMessage != null) {
+            out.append(systemMessage).append(',');
+        }
+        out.append("{\"role\":\"user\",\"content\":");
+        appendString(out, prompt);
+        return out.append('}').append(template.tail).toString();
+    }
+
+    private String systemMessage(String systemPrompt) {
+        String cached = systemMessages.get(systemPrompt);
+        if (cached != null) {
+            return cached;
+        }
+        StringBuilder out = new StringBuilder(systemPrompt.length() + 32).append("{\"role\":\"system\",\"content\":");
+        appendString(out, systemPrompt);
+        String message = out.append('}').toString();
+        if (systemMessages.size() < MAX_CACHED_SYSTEM_PROMPTS) {
+            systemMessages.put(systemPrompt, message);
+        }
+        return message;
+    }
+
+    private static Template template(String model, boolean streaming) {
+        StringBuilder head = new StringBuilder(128).append("{\"model\":");
+        appendString(head, model);
+        if (model.equals("mistralai/ministral-8b")) {
+            // Using Ministral's recommended median temperature.
+            head.append(",\"temperature\":0.6,\"top_p\":1.0,\"repetition_penalty\":1.0,\"max_tokens\":50");
+        } else {
+            head.append(",\"temperature\":0.83");
+        }
+        if (streaming) {
+            head.append(",\"stream\":true");
+        }
+        return new Template(head.append(",\"messages\":[").toString(), "]}");
+    }
+
+    static void appendString(StringBuilder out, String value) {
+        out.append('"');
+        int last = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            String escape;
+            if (c < 128) {
+                escape = ESCAPES[c];
+                if (escape == null) {
+                    continue;
+                }
+            } else if (c == '\u2028') {
+                escape = "\\u2028";
+            } else if (c == '\u2029') {
+                escape = "\\u2029";
+            } else {
+                continue;
+            }
+            out.append(value, last, i).append(escape);
+            last = i + 1;
+        }
+        out.append(value, last, value.length()).append('"');
+    }
+
+    // Reads a whole response, or one "data:" chunk of a streamed one, where the content is in
+    // choices[0].delta rather than choices[0].message.
+    static Completion decode(Reader body) throws IOException {
+        JsonReader in = new JsonReader(body);
+        String content = null;
+        String error = null;
+        long promptTokens = 0;
+        long completionTokens = 0;
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if (in.peek() == JsonToken.NULL) {
+                in.skipValue();
+                continue;
+            }
+            switch (name) {
+                case "choices" -> {
+                    in.beginArray();
+                    if (in.hasNext()) {
+                        content = readChoice(in);
+                    }
+                    while (in.hasNext()) {
+                        in.skipValue();
+                    }
+                    in.endArray();
+                }
+                case "usage" -> {
+                    in.beginObject();
+                    while (in.hasNext()) {
+                        switch (in.nextName()) {
+                            case "prompt_tokens" -> promptTokens = in.nextLong();
+                            case "completion_tokens" -> completionTokens = in.nextLong();
+                            default -> in.skipValue();
+                        }
+                    }
+                    in.endObject();
+                }
+                case "error" -> error = readError(in);
+                default -> in.skipValue();
+            }
+        }
+        in.endObject();
+        return new Completion(content, error, promptTokens, completionTokens);
+    }
+
+    static Completion decode(String body) throws IOException {
+        return decode(new StringReader(body));
+    }
+
+    private static String readChoice(JsonReader in) throws IOException {
+        String content = null;
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if ((name.equals("message") || name.equals("delta")) && in.peek() == JsonToken.BEGIN_OBJECT) {
+                in.beginObject();
+                while (in.hasNext()) {
+                    // Reasoning arrives in its own field and is skipped without being read into memory.
+                    if (in.nextName().equals("content") && in.peek() == JsonToken.STRING) {
+                        content = in.nextString();
+                    } else {
+                        in.skipValue();
+                    }
+                }
+                in.endObject();
+            } else {
+                in.skipValue();
+            }
+        }
+        in.endObject();
+        return content;
+    }
+
+    // The error's message if it has one, otherwise a placeholder.
+    private static String readError(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.STRING) {
+            return in.nextString();
+        }
+        if (in.peek() != JsonToken.BEGIN_OBJECT) {
+            in.skipValue();
+            return "unknown error";
+        }
+        String message = "unknown error";
+        in.beginObject();
+        while (in.hasNext()) {
+            if (in.nextName().equals("message") && in.peek() == JsonToken.STRING) {
+                message = in.nextString();
+            } else {
+                in.skipValue();
+            }
+        }
+        in.endObject();
+        return message;
+    }
+}
@@ -0,0 +1,373 @@
+package com.jellypudding.fakePlayers;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// What each fake remembers about the real players it has talked to, kept across restarts. Every
+// profile has an append-only log of length-prefixed records in the memory folder. Only online
+// fakes are held in memory, and for each player only the newest few lines plus one summary
+// (how often they talked, since when, and the most common topics), so memory stays bounded
+// however long the logs get. Older lines are folded into the summary as newer ones arrive, and
+// compact() rewrites large logs the same way. record() only queues the write; flush() appends
+// the queue and runs on an async task, so chat handlers never touch the disk.
+public class ConversationMemory {
+
+    private static final byte LINE = 1;
+    private static final byte SUMMARY = 2;
+    // Players remembered per fake; the least recently seen are forgotten first.
+    private static final int MAX_PLAYERS = 64;
+    // Logs are rewritten by compact() once they grow past this.
+    private static final long COMPACT_BYTES = 64 * 1024;
+    // Largest record write() can produce: kind, two times, count and two writeUTF strings.
+    private static final int MAX_RECORD_BYTES = 1 + 8 + 8 + 4 + 2 * (2 + 65535);
+    private static final int MAX_TOPICS = 8;
+    private static final Pattern WORD = Pattern.compile("[a-z]{4,}");
+    private static final Set<String> STOP_WORDS = Set.of(
+            "that", "this", "with", "have", "what", "just", "like", "your", "from", "they", "there",
+            "about", "would", "dont", "cant", "yeah", "know", "think", "them", "then", "were", "been",
+            "will", "when", "where", "whispered", "lmao", "really", "some", "more", "here", "also", "again", "still"
+    );
+    private static final DateTimeFormatter DAY = DateTimeFormatter.ofPattern("MMM d").withZone(ZoneId.systemDefault());
+
+    // A line is one chat message. A summary stands for count older lines between firstTime and
+    // time, with text holding "topic:count" pairs.
+    private static final class Entry {
+        final byte kind;
+        final long time;
+        final long firstTime;
+        final int count;
+        final String player;
+        final String text;
+
+        Entry(byte kind, long time, long firstTime, int count, String player, String text) {
+            this.kind = kind;
+            this.time = time;
+            this.firstTime = firstTime;
+            this.count = count;
+            this.player = player;
+            this.text = text;
+        }
+    }
+
+    private static final class PlayerMemory {
+        Entry summary;
+        final ArrayDeque<Entry> recent = new ArrayDeque<>();
+    }
+
+    private static final class PendingWrite {
+        final String fake;
+        final Entry entry;
+
+        PendingWrite(String fake, Entry entry) {
+            this.fake = fake;
+            this.entry = entry;
+        }
+    }
+
+    private final Path directory;
+    private final Logger logger;
+    // Newest lines kept word for word per player; older ones go into the summary.
+    private final int linesPerPlayer;
+    // Per online fake, players in access order. Each inner map is guarded by itself.
+    private final Map<String, Map<String, PlayerMemory>> loaded = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<PendingWrite> pending = new ConcurrentLinkedQueue<>();
+    // Serialises all file access.
+    private final Object io = new Object();
+
+    public ConversationMemory(Path directory, Logger logger, int linesPerPlayer) {
+        this.directory = directory;
+        this.logger = logger;
+        this.linesPerPlayer = Math.max(1, linesPerPlayer);
+    }
+
+    // Reads the fake's log into memory. Blocking; call from an async task.
+    public void load(String fake) {
+        Map<String, PlayerMemory> players = newPlayerMap();
+        synchronized (io) {
+            flushLocked();
+            for (Entry entry : read(logFile(fake))) {
+                remember(players, fake, entry);
+            }
+        }
+        loaded.put(fake, players);
+    }
+
+    public void unload(String fake) {
+        loaded.remove(fake);
+    }
+
+    public void record(String fake, String player, String text) {
+        long now = System.currentTimeMillis();
+        Entry entry = new Entry(LINE, now, now, 1, player, text);
+        pending.add(new PendingWrite(fake, entry));
+        Map<String, PlayerMemory> players = loaded.get(fake);
+        if (players != null) {
+            synchronized (players) {
+                remember(players, fake, entry);
+            }
+        }
+    }
+
+    // Prompt lines about the player: the summary, if any, then the newest lines. Empty if the
+    // fake isn't loaded or has never talked to the player.
+    public List<String> recall(String fake, String player) {
+        Map<String, PlayerMemory> players = loaded.get(fake);
+        if (players == null) {
+            return List.of();
+        }
+        synchronized (players) {
+            PlayerMemory memory = players.get(player);
+            if (memory == null) {
+                return List.of();
+            }
+            List<String> lines = new ArrayList<>(memory.recent.size() + 1);
+            if (memory.summary != null) {
+                lines.add(describe(memory.summary));
+            }
+            for (Entry entry : memory.recent) {
+                lines.add(entry.text);
+            }
+            return lines;
+        }
+    }
+
+    public void flush() {
+        synchronized (io) {
+            flushLocked();
+        }
+    }
+
+    // Rewrites every log over COMPACT_BYTES as a summary plus the newest lines per player.
+    public void compact() {
+        synchronized (io) {
+            flushLocked();
+            if (!Files.isDirectory(directory)) {
+                return;
+            }
+            try (DirectoryStream<Path> logs = Files.newDirectoryStream(directory, "*.log")) {
+                for (Path log : logs) {
+                    if (Files.size(log) > COMPACT_BYTES) {
+                        compact(log);
+                    }
+                }
+            } catch (IOException e) {
+                logger.warning("Could not compact conversation memory: " + e.getMessage());
+            }
+        }
+    }
+
+    private void compact(Path log) throws IOException {
+        String fileName = log.getFileName().toString();
+        String fake = fileName.substring(0, fileName.length() - ".log".length());
+        Map<String, PlayerMemory> players = newPlayerMap();
+        for (Entry entry : read(log)) {
+            remember(players, fake, entry);
+        }
+        Path temp = log.resolveSibling(fileName + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            for (PlayerMemory memory : players.values()) {
+                if (memory.summary != null) {
+                    write(out, memory.summary);
+                }
+                for (Entry entry : memory.recent) {
+                    write(out, entry);
+                }
+            }
+        }
+        Files.move(temp, log, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void flushLocked() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        Map<String, ByteArrayOutputStream> batches = new HashMap<>();
+        PendingWrite write;
+        try {
+            while ((write = pending.poll()) != null) {
+                ByteArrayOutputStream batch = batches.computeIfAbsent(write.fake, f -> new ByteArrayOutputStream());
+                write(new DataOutputStream(batch), write.entry);
+            }
+            Files.createDirectories(directory);
+            for (Map.Entry<String, ByteArrayOutputStream> batch : batches.entrySet()) {
+                Files.write(logFile(batch.getKey()), batch.getValue().toByteArray(),
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            }
+        } catch (IOException e) {
+            logger.warning("Could not save conversation memory: " + e.getMessage());
+        }
+    }
+
+    private Map<String, PlayerMemory> newPlayerMap() {
+        return new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PlayerMemory> eldest) {
+                return size() > MAX_PLAYERS;
+            }
+        };
+    }
+
+    private void remember(Map<String, PlayerMemory> players, String fake, Entry entry) {
+        PlayerMemory memory = players.computeIfAbsent(entry.player, p -> new PlayerMemory());
+        if (entry.kind == SUMMARY) {
+            memory.summary = memory.summary == null ? entry : merge(memory.summary, entry, fake);
+            return;
+        }
+        memory.recent.addLast(entry);
+        while (memory.recent.size() > linesPerPlayer) {
+            Entry oldest = memory.recent.removeFirst();
+            Entry folded = new Entry(SUMMARY, oldest.time, oldest.time, 1, oldest.player,
+                    encodeTopics(countTopics(oldest.text, oldest.player, fake, new HashMap<>())));
+            memory.summary = memory.summary == null ? folded : merge(memory.summary, folded, fake);
+        }
+    }
+
+    private static Entry merge(Entry summary, Entry other, String fake) {
+        Map<String, Integer> topics = decodeTopics(summary.text);
+        for (Map.Entry<String, Integer> topic : decodeTopics(other.text).entrySet()) {
+            topics.merge(topic.getKey(), topic.getValue(), Integer::sum);
+        }
+        return new Entry(SUMMARY, Math.max(summary.time, other.time), Math.min(summary.firstTime, other.firstTime),
+                summary.count + other.count, summary.player, encodeTopics(topics));
+    }
+
+    private static Map<String, Integer> countTopics(String text, String player, String fake, Map<String, Integer> topics) {
+        Matcher matcher = WORD.matcher(text.toLowerCase(Locale.ROOT));
+        while (matcher.find()) {
+            String word = matcher.group();
+            if (!STOP_WORDS.contains(word) && !word.equalsIgnoreCase(player) && !word.equalsIgnoreCase(fake)) {
+                topics.merge(word, 1, Integer::sum);
+            }
+        }
+        return topics;
+    }
+
+    // Keeps the MAX_TOPICS most frequent topics, most frequent first.
+    private static String encodeTopics(Map<String, Integer> topics) {
+        List<Map.Entry<String, Integer>> sorted = new ArrayList<>(topics.entrySet());
+        sorted.sort(Map.Entry.<String, Integer>comparingByValue().reversed());
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < Math.min(MAX_TOPICS, sorted.size()); i++) {
+            if (i > 0) {
+                text.append(' ');
+            }
+            text.append(sorted.get(i).getKey()).append(':').append(sorted.get(i).getValue());
+        }
+        return text.toString();
+    }
+
+    private static Map<String, Integer> decodeTopics(String text) {
+        Map<String, Integer> topics = new HashMap<>();
+        for (String pair : text.split(" ")) {
+            int colon = pair.indexOf(':');
+            if (colon > 0) {
+                try {
+                    topics.merge(pair.substring(0, colon), Integer.parseInt(pair.substring(colon + 1)), Integer::sum);
+                } catch (NumberFormatException ignored) {
+                    // Skip a damaged pair rather than the whole summary.
+                }
+            }
+        }
+        return topics;
+    }
+
+    private static String describe(Entry summary) {
+        StringBuilder line = new StringBuilder("Talked with ").append(summary.player).append(' ')
+                .append(summary.count).append(summary.count == 1 ? " time" : " times")
+                .append(" since ").append(DAY.format(Instant.ofEpochMilli(summary.firstTime)));
+        List<String> topics = new ArrayList<>();
+        for (String pair : summary.text.split(" ")) {
+            int colon = pair.indexOf(':');
+            if (colon > 0 && topics.size() < 3) {
+                topics.add(pair.substring(0, colon));
+            }
+        }
+        if (!topics.isEmpty()) {
+            line.append(", mostly about ").append(String.join(", ", topics));
+        }
+        return line.toString();
+    }
+
+    // Record: int length of the rest, kind, time, first time, count, player, text.
+    private static void write(DataOutputStream out, Entry entry) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(64 + entry.text.length());
+        DataOutputStream bodyOut = new DataOutputStream(body);
+        bodyOut.writeByte(entry.kind);
+        bodyOut.writeLong(entry.time);
+        bodyOut.writeLong(entry.firstTime);
+        bodyOut.writeInt(entry.count);
+        bodyOut.writeUTF(entry.player);
+        bodyOut.writeUTF(entry.text);
+        out.writeInt(body.size());
+        body.writeTo(out);
+    }
+
+    // Reads records in order. A record cut off by a crash, or one whose length or contents don't
+    // make sense, ends the valid data: it and anything after it are cut from the file, so later
+    // appends don't land behind it.
+    private List<Entry> read(Path log) {
+        List<Entry> entries = new ArrayList<>();
+        if (!Files.exists(log)) {
+            return entries;
+        }
+        long complete = 0;
+        boolean truncated = false;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(log)))) {
+            long size = Files.size(log);
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (length < 0 || length > MAX_RECORD_BYTES || length > size - complete - 4) {
+                    truncated = true;
+                    break;
+                }
+                byte[] body = new byte[length];
+                in.readFully(body);
+                DataInputStream record = new DataInputStream(new ByteArrayInputStream(body));
+                try {
+                    entries.add(new Entry(record.readByte(), record.readLong(), record.readLong(), record.readInt(),
+                            record.readUTF(), record.readUTF()));
+                } catch (IOException e) {
+                    truncated = true;
+                    break;
+                }
+                complete += 4 + length;
+            }
+        } catch (EOFException e) {
+            truncated = true;
+        } catch (IOException e) {
+            logger.warning("Could not load conversation memory: " + e.getMessage());
+        }
+        if (truncated) {
+            logger.warning("Dropping a truncated or corrupt record at the end of " + log.getFileName());
+            try (FileChannel channel = FileChannel.open(log, StandardOpenOption.WRITE)) {
+                channel.truncate(complete);
+            } catch (IOException e) {
+                logger.warning("Could not repair conversation memory: " + e.getMessage());
+            }
+        }
+        return entries;
+    }
+
+    private Path logFile(String fake) {
+        return directory.resolve(fake.replaceAll("[^A-Za-z0-9_-]", "_") + ".log");
+    }
+}
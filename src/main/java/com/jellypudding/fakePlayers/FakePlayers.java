@@ -4,7 +4,6 @@ import net.kyori.adventure.text.Component;
 import net.kyori.adventure.text.JoinConfiguration;
 import net.kyori.adventure.text.format.NamedTextColor;
 
-import net.minecraft.network.protocol.game.ClientboundPlayerInfoRemovePacket;
 import net.minecraft.network.protocol.game.ClientboundPlayerInfoUpdatePacket;
 import net.minecraft.world.level.GameType;
 
@@ -12,6 +11,7 @@ import io.papermc.paper.event.player.AsyncChatEvent;
 
 import org.bukkit.Bukkit;
 import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.file.YamlConfiguration;
 import org.bukkit.craftbukkit.entity.CraftPlayer;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
@@ -26,49 +26,127 @@ import com.destroystokyo.paper.event.server.PaperServerListPingEvent;
 import com.mojang.authlib.GameProfile;
 import com.mojang.authlib.properties.Property;
 
+import java.io.File;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
 
 public class FakePlayers extends JavaPlugin implements Listener {
 
-    private Set<String> currentFakePlayers;
-    private Map<String, UUID> fakePlayerUUIDs;
+    private final FakeRoster roster = new FakeRoster();
+    // Case-insensitive name lookups for mentions, commands and tab completion.
+    private final NameIndex fakeNames = new NameIndex(true);
+    private final NameIndex realNames = new NameIndex(false);
     private final Random random = new Random();
     private int maxPlayers;
     private boolean enableChat;
     private ChatAI chatAI;
-
-    // Increase the maximum recent messages to 12 and define message expiration (15 minutes)
-    private static final int MAX_RECENT_MESSAGES = 12;
+    // Null unless chat is enabled. Every generation that will be posted goes through it.
+    private GenerationScheduler generations;
+    private ModelRouter modelRouter;
+    private final Metrics metrics = new Metrics();
+    // Read by ping handlers on network threads; replaced on the main thread.
+    private volatile PingSnapshot pingSnapshot = PingSnapshot.EMPTY;
+    private long pingSnapshotVersion = 0;
+    private boolean pingRebuildScheduled = false;
+    // Null unless ping-rate-tracking is enabled.
+    private PingRateTracker pingRateTracker;
+    private OffTopicPool offTopicPool;
+    private TabListBroadcaster tabList;
+    private LatencySimulator latencySimulator;
+    private PopulationModel population;
+    // Null unless chat and conversation-memory are enabled.
+    private ConversationMemory memory;
+    // Null unless network-coordination is enabled.
+    private RosterCoordinator coordinator;
+
+    // Upper bound on kept chat lines; prompt-context-tokens decides how many go into each prompt.
+    // Messages expire after 15 minutes.
+    private static final int MAX_RECENT_MESSAGES = 64;
     private static final long MESSAGE_EXPIRATION_MS = 15 * 60 * 1000; // 15 minutes in milliseconds
-    private final LinkedList<ChatMessage> recentMessages = new LinkedList<>();
-
-    Map<String, PlayerFakeAllData> fakePlayerData;
-    private final Map<String, Long> lastResponseTimes = new ConcurrentHashMap<>();
+    private final RecentMessageBuffer recentMessages = new RecentMessageBuffer(MAX_RECENT_MESSAGES, MESSAGE_EXPIRATION_MS);
+
+    // Replaced as a whole on /fakeplayers reload. Also read from HTTP client threads by ChatAI.
+    private volatile ProfileStore profiles;
+    private boolean reloadRunning = false;
+    // Minimum time between two generations for the same fake player.
+    private static final long RESPONSE_COOLDOWN_MS = 15000;
+    private final ChatAdmission chatAdmission = new ChatAdmission(RESPONSE_COOLDOWN_MS, "chat", metrics);
+
+    // Private conversations, one history per fake and real player pair, keyed by fake + '\0' + UUID.
+    // Main thread only. The least recently used pair is dropped beyond MAX_CONVERSATIONS.
+    private static final int MAX_CONVERSATIONS = 128;
+    private static final int CONVERSATION_LINES = 8;
+    private final Map<String, RecentMessageBuffer> conversations = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, RecentMessageBuffer> eldest) {
+            return size() > MAX_CONVERSATIONS;
+        }
+    };
+    // Whispers get their own, shorter cooldown so ambient chat never delays a reply.
+    private static final long WHISPER_COOLDOWN_MS = 2000;
+    private final ChatAdmission whisperAdmission = new ChatAdmission(WHISPER_COOLDOWN_MS, "whisper", metrics);
+    private boolean whisperReplies;
 
     // A simple data class to hold chat messages with their timestamp.
     public static class ChatMessage {
+        public final long sequence;
         public final long timestamp;
         public final String message;
-        public ChatMessage(String message) {
+        public ChatMessage(long sequence, String message) {
+            this.sequence = sequence;
             this.timestamp = System.currentTimeMillis();
             this.message = message;
         }
     }
 
-    public static class PlayerFakeAllData {
-        String texture;
-        String signature;
-        String personality;
-        String textStyle;
-        String model;
-
-        PlayerFakeAllData(String texture, String signature, String personality, String textStyle, String model) {
+    // Immutable per-profile data. The GameProfile, textures property and server list entry are
+    // built once when ProfileStore decodes the profile and shared by every packet that references it.
+    public static final class PlayerFakeAllData {
+        final String name;
+        final String texture;
+        final String signature;
+        final String personality;
+        final String textStyle;
+        final String model;
+        // The model first, then its fallbacks; ModelRouter picks one of these per request.
+        final List<String> models;
+        final UUID uuid;
+        final GameProfile profile;
+        final PaperServerListPingEvent.ListedPlayerInfo listedInfo;
+
+        PlayerFakeAllData(String name, String texture, String signature, String personality, String textStyle, String model,
+                          List<String> fallbackModels) {
+            this.name = name;
             this.texture = texture;
             this.signature = signature;
             this.personality = personality != null ? personality : "sarcastic and insulting";
             this.textStyle = textStyle != null ? textStyle : "normal";
             this.model = model != null ? model : "deepseek/deepseek-r1-distill-llama-70b:free";
+            LinkedHashSet<String> pool = new LinkedHashSet<>();
+            pool.add(this.model);
+            pool.addAll(fallbackModels);
+            this.models = List.copyOf(pool);
+            // Derived from the name so a profile keeps the same identity every time it joins. The
+            // prefix differs from offline mode's "OfflinePlayer:", so a real player joining with
+            // a fake's name never gets the same UUID (online-mode UUIDs are random, version 4).
+            this.uuid = UUID.nameUUIDFromBytes(("FakePlayers:" + name).getBytes(java.nio.charset.StandardCharsets.UTF_8));
+            this.profile = new GameProfile(uuid, name);
+            this.profile.getProperties().put("textures", new Property("textures", texture, signature));
+            this.listedInfo = new PaperServerListPingEvent.ListedPlayerInfo(name, uuid);
+        }
+
+        ClientboundPlayerInfoUpdatePacket.Entry tabListEntry(int latency) {
+            return new ClientboundPlayerInfoUpdatePacket.Entry(
+                    uuid,
+                    profile,
+                    true,
+                    latency,
+                    GameType.SURVIVAL,
+                    null,
+                    false,
+                    0,
+                    null
+            );
         }
     }
 
@@ -77,8 +155,38 @@ public class FakePlayers extends JavaPlugin implements Listener {
         saveDefaultConfig();
         loadConfig();
 
-        currentFakePlayers = new HashSet<>();
-        fakePlayerUUIDs = new HashMap<>();
+        roster.setProfiles(profiles.names());
+        long seed = getConfig().getLong("population-seed", 0);
+        population = new PopulationModel(
+                getConfig().getInt("population-min-fakes", 3),
+                getConfig().getInt("population-max-fakes", 25),
+                getConfig().getInt("population-jitter", 2),
+                seed != 0 ? seed : random.nextLong(),
+                new File(getDataFolder(), "population.dat").toPath(),
+                getLogger());
+        for (Player player : Bukkit.getOnlinePlayers()) {
+            realNames.add(player.getName());
+        }
+
+        tabList = new TabListBroadcaster(this, metrics);
+        tabList.start();
+        latencySimulator = new LatencySimulator(tabList, random,
+                getConfig().getDouble("latency-drift-step-ms", 8),
+                getConfig().getInt("latency-change-threshold", 10));
+
+        if (enableChat && getConfig().getBoolean("conversation-memory", true)) {
+            memory = new ConversationMemory(new File(getDataFolder(), "memory").toPath(), getLogger(),
+                    getConfig().getInt("memory-lines-per-player", 4));
+        }
+
+        if (getConfig().getBoolean("network-coordination", false)) {
+            startCoordinator();
+        }
+
+        if (getConfig().getBoolean("ping-rate-tracking", false)) {
+            pingRateTracker = new PingRateTracker(metrics, getLogger(), getConfig().getInt("ping-flood-threshold", 120));
+        }
+        rebuildPingSnapshot();
 
         getServer().getPluginManager().registerEvents(this, this);
 
@@ -88,38 +196,88 @@ public class FakePlayers extends JavaPlugin implements Listener {
 
         scheduleNextUpdate();
         scheduleRandomChat();
+        scheduleGenerationDrain();
+        scheduleOffTopicRefill();
+        scheduleModelHealthSave();
+        scheduleMetricsExport();
+        scheduleLatencyDrift();
+        schedulePopulationSave();
+        scheduleMemoryMaintenance();
 
         getLogger().info("FakePlayers enabled");
     }
 
     @Override
     public void onDisable() {
-        for (String name : new ArrayList<>(currentFakePlayers)) {
+        for (String name : roster.online()) {
             removeFakePlayer(name, false);
         }
-        currentFakePlayers.clear();
-        fakePlayerUUIDs.clear();
+        // The scheduler is shut down at this point, so send the queued removals directly.
+        tabList.stop();
+        if (coordinator != null) {
+            coordinator.stop();
+        }
+        roster.clear();
+        fakeNames.clear();
+        population.save();
+        if (memory != null) {
+            memory.flush();
+        }
+
+        if (chatAI != null) {
+            modelRouter.save();
+        }
     }
 
     private void loadConfig() {
-        fakePlayerData = new HashMap<>();
         maxPlayers = getConfig().getInt("max-players", 69);
         enableChat = getConfig().getBoolean("enable-chat", false);
+        whisperReplies = getConfig().getBoolean("whisper-replies", true);
+        metrics.setWhisperSlo(getConfig().getLong("whisper-slo-ms", 5000));
+        List<String> fallbackModels = fallbackModels(getConfig());
 
         if (enableChat) {
             String apiKey = getConfig().getString("openrouter-api-key", "");
             if (!apiKey.isEmpty()) {
-                chatAI = new ChatAI(apiKey, getLogger(), fakePlayerData);
+                int maxInFlight = getConfig().getInt("max-in-flight-requests", 4);
+                int reservedWhispers = getConfig().getInt("whisper-reserved-requests", 1);
+                int timeoutSeconds = getConfig().getInt("request-timeout-seconds", 30);
+                offTopicPool = new OffTopicPool(
+                        getConfig().getInt("prefetch-pool-size", 3),
+                        getConfig().getInt("prefetch-max-age-minutes", 30) * 60 * 1000L
+                );
+                modelRouter = new ModelRouter(getLogger(), new File(getDataFolder(), "model-health.properties").toPath());
+                chatAI = new ChatAI(apiKey, getConfig().getString("api-url", ChatAI.DEFAULT_API_URL), getLogger(), name -> profiles.get(name), maxInFlight,
+                        reservedWhispers, java.time.Duration.ofSeconds(timeoutSeconds), offTopicPool,
+                        getConfig().getBoolean("streaming", false),
+                        getConfig().isList("refusal-phrases")
+                                ? getConfig().getStringList("refusal-phrases")
+                                : ChatAI.DEFAULT_REFUSAL_PHRASES,
+                        modelRouter, metrics,
+                        new PromptBuilder(getConfig().getInt("prompt-context-tokens", 300)));
+                generations = new GenerationScheduler(maxInFlight, reservedWhispers,
+                        getConfig().getInt("generation-rate-per-minute", 30),
+                        getConfig().getInt("generation-queue-size", 32),
+                        getConfig().getInt("generation-deadline-seconds", 30) * 1000L,
+                        getConfig().getInt("generation-stale-lines", 8),
+                        metrics);
             } else {
                 getLogger().warning("Chat is enabled but no OpenRouter API key provided!");
                 enableChat = false;
             }
         }
 
+        java.nio.file.Path dataFolder = getDataFolder().toPath();
+        java.nio.file.Path profileFile = null;
+        try {
+            profileFile = ProfileStore.latest(dataFolder);
+        } catch (java.io.IOException e) {
+            getLogger().warning("Could not look for stored fake players: " + e.getMessage());
+        }
         ConfigurationSection playersSection = getConfig().getConfigurationSection("fake-players");
-        if (playersSection == null) {
+        if (playersSection == null && profileFile == null) {
             Map<String, PlayerFakeAllData> defaultPlayers = new HashMap<>();
-            defaultPlayers.put("Steve", new PlayerFakeAllData("defaultTexture", "defaultSignature", "caustic", "perfect", "deepseek/deepseek-r1-distill-llama-70b:free"));
+            defaultPlayers.put("Steve", new PlayerFakeAllData("Steve", "defaultTexture", "defaultSignature", "caustic", "perfect", "deepseek/deepseek-r1-distill-llama-70b:free", fallbackModels));
 
             for (Map.Entry<String, PlayerFakeAllData> entry : defaultPlayers.entrySet()) {
                 getConfig().set("fake-players." + entry.getKey() + ".texture", entry.getValue().texture);
@@ -130,90 +288,256 @@ public class FakePlayers extends JavaPlugin implements Listener {
             }
             getConfig().set("max-players", maxPlayers);
             saveConfig();
-        } else {
-            for (String name : playersSection.getKeys(false)) {
-                String texture = playersSection.getString(name + ".texture");
-                String signature = playersSection.getString(name + ".signature");
-                String personality = playersSection.getString(name + ".personality", "cynical");
-                String textStyle = playersSection.getString(name + ".text-style", "perfect");
-                String model = playersSection.getString(name + ".model", "deepseek/deepseek-r1-distill-llama-70b:free");
-                if (texture != null && signature != null) {
-                    fakePlayerData.put(name, new PlayerFakeAllData(texture, signature, personality, textStyle, model));
+            playersSection = getConfig().getConfigurationSection("fake-players");
+        }
+
+        // Without the section (removed after an import), the latest profile file is used as-is.
+        if (playersSection != null) {
+            try {
+                java.nio.file.Path compiled = ProfileStore.compile(playersSection, dataFolder);
+                if (!compiled.equals(profileFile)) {
+                    getLogger().info("Imported fake players into " + compiled.getFileName());
                 }
+                profileFile = compiled;
+            } catch (java.io.IOException e) {
+                getLogger().warning("Could not import fake players: " + e.getMessage());
             }
+            // Profiles are read from the mapped file from here on, so the parsed section doesn't
+            // need to stay on the heap. The config is never saved after this point.
+            getConfig().set("fake-players", null);
+        }
+        try {
+            if (profileFile == null) {
+                throw new java.io.IOException("no profile file in " + dataFolder);
+            }
+            profiles = ProfileStore.open(profileFile, fallbackModels, getConfig().getInt("profile-cache-size", 32));
+            // Nothing is mapped yet, so files left over from earlier reloads can go now.
+            ProfileStore.deleteUnused(dataFolder, profileFile);
+        } catch (java.io.IOException | RuntimeException e) {
+            getLogger().warning("Could not load fake players: " + e.getMessage());
+            profiles = ProfileStore.empty(fallbackModels);
         }
     }
 
-    private void scheduleNextUpdate() {
-        long delay = random.nextInt(3000, 12000);
-        Bukkit.getScheduler().runTaskLater(this, () -> {
-            updateFakePlayers();
-            scheduleNextUpdate();
-        }, delay);
-    }
+    private void startCoordinator() {
+        String nodeId = getConfig().getString("network-node-id", "");
+        if (nodeId.isEmpty()) {
+            nodeId = "port-" + getServer().getPort();
+        }
+        // LoopbackTransport has no peers outside one JVM, so it is only used in tests.
+        String transportName = getConfig().getString("network-transport", "plugin-messaging");
+        if (!transportName.equalsIgnoreCase("plugin-messaging")) {
+            getLogger().warning("Unsupported network-transport '" + transportName + "', using plugin-messaging.");
+        }
+        coordinator = new RosterCoordinator(nodeId, new PluginMessageTransport(this), getLogger());
+        coordinator.start(new RosterCoordinator.Listener() {
+            @Override
+            public void conflict(String fake) {
+                Bukkit.getScheduler().runTask(FakePlayers.this, () -> removeFakePlayer(fake, true));
+            }
 
-    private void updateFakePlayers() {
-        int realCount = Bukkit.getOnlinePlayers().size();
-        int fakeCount = currentFakePlayers.size();
-        int totalCount = realCount + fakeCount;
+            @Override
+            public void chat(String speaker, String line) {
+                Bukkit.getScheduler().runTask(FakePlayers.this, () -> postFakeChat(speaker, line));
+            }
+        }, roster::online);
+        Bukkit.getScheduler().runTaskTimer(this, coordinator::heartbeat, 100L, 100L);
+    }
 
-        final double occupancyThreshold = 0.85;
-        double occupancy = (double) totalCount / maxPlayers;
+    private static List<String> fallbackModels(ConfigurationSection config) {
+        return config.isList("fallback-models")
+                ? config.getStringList("fallback-models")
+                : List.of("deepseek/deepseek-r1-distill-llama-70b:free", "mistralai/ministral-8b");
+    }
 
-        if (occupancy >= occupancyThreshold && !currentFakePlayers.isEmpty()) {
-            List<String> current = new ArrayList<>(currentFakePlayers);
-            String playerToRemove = current.get(random.nextInt(current.size()));
-            removeFakePlayer(playerToRemove, true);
+    // Re-reads config.yml and imports the fake-players section off the main thread, then applies
+    // the difference on the main thread. Only profiles and max-players are reloaded; other
+    // settings still need a restart.
+    private void reloadProfiles(org.bukkit.command.CommandSender sender) {
+        if (reloadRunning) {
+            sender.sendMessage(Component.text("A reload is already running.").color(NamedTextColor.RED));
             return;
         }
+        reloadRunning = true;
+        File configFile = new File(getDataFolder(), "config.yml");
+        java.nio.file.Path dataFolder = getDataFolder().toPath();
+        Bukkit.getScheduler().runTaskAsynchronously(this, () -> {
+            try {
+                YamlConfiguration config = YamlConfiguration.loadConfiguration(configFile);
+                if (config.getKeys(false).isEmpty()) {
+                    throw new java.io.IOException("config.yml is empty or could not be parsed");
+                }
+                ConfigurationSection playersSection = config.getConfigurationSection("fake-players");
+                // A changed section goes to a new file, since the current one is still mapped.
+                java.nio.file.Path profileFile = playersSection != null
+                        ? ProfileStore.compile(playersSection, dataFolder)
+                        : ProfileStore.latest(dataFolder);
+                if (profileFile == null) {
+                    throw new java.io.IOException("no fake-players section and no stored profiles");
+                }
+                ProfileStore next = ProfileStore.open(profileFile, fallbackModels(config),
+                        config.getInt("profile-cache-size", 32));
+                int nextMaxPlayers = config.getInt("max-players", 69);
+                Bukkit.getScheduler().runTask(this, () -> applyReload(sender, next, nextMaxPlayers));
+            } catch (java.io.IOException | RuntimeException e) {
+                // A corrupt file can also fail with unchecked buffer exceptions; either way the
+                // flag has to be cleared or every later reload is refused.
+                Bukkit.getScheduler().runTask(this, () -> {
+                    reloadRunning = false;
+                    sender.sendMessage(Component.text("Reload failed: " + e.getMessage()).color(NamedTextColor.RED));
+                });
+            }
+        });
+    }
 
-        int randomAction = random.nextInt(100);
+    // Swaps in the new store. Unchanged online profiles keep their decoded data, changed skins are
+    // re-sent as one remove and one add packet on the next flush, and fakes whose profile is gone
+    // leave one by one over the next two minutes instead of all at once.
+    private void applyReload(org.bukkit.command.CommandSender sender, ProfileStore next, int nextMaxPlayers) {
+        long start = System.nanoTime();
+        reloadRunning = false;
+        ProfileStore current = profiles;
+
+        int added = 0;
+        int changed = 0;
+        int removed = 0;
+        for (String name : next.names()) {
+            if (!current.contains(name)) {
+                added++;
+            } else if (!next.sameRecord(name, current)) {
+                changed++;
+            }
+        }
+        for (String name : current.names()) {
+            if (!next.contains(name)) {
+                removed++;
+            }
+        }
 
-        // 35% chance to add a player (0-34)
-        if (randomAction < 35) {
-            if (fakeCount < fakePlayerData.size() && 
-                    ((double) (totalCount + 1) / maxPlayers) < occupancyThreshold) {
-                List<String> availablePlayers = new ArrayList<>(fakePlayerData.keySet());
-                availablePlayers.removeAll(currentFakePlayers);
-                if (!availablePlayers.isEmpty()) {
-                    String randomName = availablePlayers.get(random.nextInt(availablePlayers.size()));
-                    addFakePlayer(randomName);
+        int skins = 0;
+        List<String> leaving = new ArrayList<>();
+        for (String name : roster.online()) {
+            PlayerFakeAllData old = current.get(name);
+            if (!next.contains(name)) {
+                next.adopt(name, old);
+                leaving.add(name);
+            } else if (next.sameRecord(name, current)) {
+                next.adopt(name, old);
+            } else {
+                PlayerFakeAllData updated = next.pin(name);
+                if (!updated.texture.equals(old.texture) || !updated.signature.equals(old.signature)) {
+                    tabList.queueRemove(old.uuid);
+                    tabList.queueAdd(updated.tabListEntry(Math.max(0, latencySimulator.latency(name))));
+                    skins++;
                 }
             }
-        } 
-        // 38% chance to remove a player (35-72)
-        else if (randomAction < 73) {
-            if (!currentFakePlayers.isEmpty()) {
-                List<String> current = new ArrayList<>(currentFakePlayers);
-                String playerToRemove = current.get(random.nextInt(current.size()));
-                removeFakePlayer(playerToRemove, true);
+        }
+
+        profiles = next;
+        // On Windows the old file stays locked until its mapping is collected; it is then
+        // removed on a later reload or the next start.
+        if (current.file() != null && !current.file().equals(next.file())) {
+            ProfileStore.deleteUnused(current.file().getParent(), next.file());
+        }
+        roster.setProfiles(next.names());
+        maxPlayers = nextMaxPlayers;
+        for (String name : leaving) {
+            Bukkit.getScheduler().runTaskLater(this, () -> removeFakePlayer(name, true), random.nextInt(200, 2400));
+        }
+        invalidatePingSnapshot();
+        metrics.recordHandler("applyReload", start);
+
+        sender.sendMessage(Component.text(String.format(
+                "Reloaded fake players: %d added, %d changed, %d removed; %d skins re-sent, %d fakes leaving.",
+                added, changed, removed, skins, leaving.size())).color(NamedTextColor.GREEN));
+    }
+
+    // Steps towards the target every few minutes while it is off, and checks back less often
+    // once the roster matches it.
+    private void scheduleNextUpdate() {
+        scheduleNextUpdate(random.nextInt(3000, 12000));
+    }
+
+    private void scheduleNextUpdate(long delay) {
+        Bukkit.getScheduler().runTaskLater(this, () -> {
+            int step = updateFakePlayers();
+            if (step != 0) {
+                scheduleNextUpdate(random.nextInt(600, 2400));
+            } else {
+                scheduleNextUpdate();
             }
+        }, delay);
+    }
+
+    private int updateFakePlayers() {
+        long start = System.nanoTime();
+        try {
+            return updateFakePlayerCount();
+        } finally {
+            metrics.recordHandler("updateFakePlayers", start);
         }
-        // 27% chance to do nothing (73-99)
-        // No action needed here
     }
 
-    // Adds a new chat message and cleans up old ones
-    private void addRecentMessage(String message) {
-        recentMessages.add(new ChatMessage(message));
-        cleanupOldMessages();
-        while (recentMessages.size() > MAX_RECENT_MESSAGES) {
-            recentMessages.poll();
+    // Makes at most one join or leave towards the population model's target. Returns the step taken.
+    private int updateFakePlayerCount() {
+        int realCount = Bukkit.getOnlinePlayers().size();
+        int fakeCount = roster.onlineCount();
+        java.time.LocalDateTime now = java.time.LocalDateTime.now();
+        population.record(now, realCount);
+
+        // Keep total occupancy below 85%, as before.
+        final double occupancyThreshold = 0.85;
+        int occupancyCap = (int) Math.ceil(occupancyThreshold * maxPlayers) - 1 - realCount;
+        int target = Math.min(population.targetFakes(now), Math.min(occupancyCap, profiles.size()));
+
+        if (coordinator != null) {
+            // Fakes now owned by another node hand over first, one per update.
+            for (String name : roster.online()) {
+                if (!coordinator.owns(name)) {
+                    removeFakePlayer(name, true);
+                    return -1;
+                }
+            }
+        }
+
+        int step = PopulationModel.step(Math.max(0, target), fakeCount);
+        if (step > 0) {
+            addFakePlayer(randomJoinable());
+        } else if (step < 0) {
+            removeFakePlayer(roster.randomOnline(random), true);
         }
+        return step;
     }
 
-    // Removes messages older than MESSAGE_EXPIRATION_MS.
-    private void cleanupOldMessages() {
-        long now = System.currentTimeMillis();
-        while (!recentMessages.isEmpty() && now - recentMessages.peek().timestamp > MESSAGE_EXPIRATION_MS) {
-            recentMessages.poll();
+    // A random offline profile this node may bring online, or null. With coordination that means
+    // one it owns that isn't online elsewhere; a few random picks find one without a full scan.
+    private String randomJoinable() {
+        if (coordinator == null) {
+            return roster.randomOffline(random);
         }
+        for (int attempt = 0; attempt < 32; attempt++) {
+            String name = roster.randomOffline(random);
+            if (name != null && coordinator.owns(name) && !coordinator.isRemoteOnline(name)) {
+                return name;
+            }
+        }
+        return null;
+    }
+
+    // Adds a new chat message. Old ones are overwritten by the ring and expired ones are
+    // filtered out when a snapshot is taken.
+    private void addRecentMessage(String message) {
+        recentMessages.add(message);
     }
 
     private void addFakePlayer(String name) {
-        UUID uuid = UUID.randomUUID();
-        currentFakePlayers.add(name);
-        fakePlayerUUIDs.put(name, uuid);
+        if (!profiles.contains(name) || !roster.markOnline(name)) {
+            return;
+        }
+        long start = System.nanoTime();
+        // Decodes the skin if it isn't cached; stays decoded until the fake leaves.
+        PlayerFakeAllData data = profiles.pin(name);
+        fakeNames.add(name);
 
         String joinAnnouncement = name + " joined the game";
         Bukkit.broadcast(
@@ -221,17 +545,34 @@ public class FakePlayers extends JavaPlugin implements Listener {
         );
         addRecentMessage(joinAnnouncement);
 
-        for (Player realPlayer : Bukkit.getOnlinePlayers()) {
-            sendFakePlayerAdd(realPlayer, name, uuid);
+        int latency = randomLatency();
+        latencySimulator.track(name, data.uuid, latency);
+        tabList.queueAdd(data.tabListEntry(latency));
+        if (memory != null) {
+            Bukkit.getScheduler().runTaskAsynchronously(this, () -> {
+                memory.load(name);
+                // The fake may have left while its log was being read.
+                Bukkit.getScheduler().runTask(this, () -> {
+                    if (!roster.isOnline(name)) {
+                        memory.unload(name);
+                    }
+                });
+            });
+        }
+        if (coordinator != null) {
+            coordinator.announceJoin(name);
         }
+        invalidatePingSnapshot();
+        metrics.recordHandler("addFakePlayer", start);
     }
 
     private void removeFakePlayer(String name, boolean broadcastLeave) {
-        if (!currentFakePlayers.contains(name)) {
+        long start = System.nanoTime();
+        if (!roster.markOffline(name)) {
             return;
         }
-        currentFakePlayers.remove(name);
-        UUID uuid = fakePlayerUUIDs.remove(name);
+        fakeNames.remove(name);
+        UUID uuid = profiles.get(name).uuid;
 
         if (broadcastLeave) {
             String leaveAnnouncement = name + " left the game";
@@ -249,99 +590,56 @@ public class FakePlayers extends JavaPlugin implements Listener {
             }
         }
 
-        for (Player realPlayer : Bukkit.getOnlinePlayers()) {
-            sendFakePlayerRemove(realPlayer, uuid);
+        latencySimulator.untrack(name);
+        if (memory != null) {
+            memory.unload(name);
         }
-    }
-
-    private void sendFakePlayerAdd(Player receiver, String name, UUID uuid) {
-        try {
-            CraftPlayer craftPlayer = (CraftPlayer) receiver;
-            if (craftPlayer.getHandle() == null) return;
-
-            net.minecraft.server.MinecraftServer server = craftPlayer.getHandle().getServer();
-            if (server == null) return;
-
-            net.minecraft.server.level.ServerLevel level = server.getLevel(net.minecraft.world.level.Level.OVERWORLD);
-            if (level == null) return;
-
-            GameProfile profile = new GameProfile(uuid, name);
-
-            PlayerFakeAllData skinData = fakePlayerData.get(name);
-            if (skinData != null) {
-                profile.getProperties().put(
-                        "textures",
-                        new Property("textures", skinData.texture, skinData.signature)
-                );
-            }
-
-            int latency = random.nextInt(4) > 0
-                    ? random.nextInt(150)
-                    : random.nextInt(150, 300);
-
-            ClientboundPlayerInfoUpdatePacket infoPacket = new ClientboundPlayerInfoUpdatePacket(
-                    EnumSet.of(
-                            ClientboundPlayerInfoUpdatePacket.Action.ADD_PLAYER,
-                            ClientboundPlayerInfoUpdatePacket.Action.UPDATE_LISTED,
-                            ClientboundPlayerInfoUpdatePacket.Action.UPDATE_LATENCY
-                    ),
-                    List.of(new ClientboundPlayerInfoUpdatePacket.Entry(
-                            uuid,
-                            profile,
-                            true,
-                            latency,
-                            GameType.SURVIVAL,
-                            null,
-                            false,
-                            0,
-                            null
-                    ))
-            );
-
-            craftPlayer.getHandle().connection.send(infoPacket);
-        } catch (Exception e) {
-            getLogger().severe("Error adding fake player " + name + ": " + e.getMessage());
-            if (e.getCause() != null) {
-                getLogger().severe("Caused by: " + e.getCause().getMessage());
-            }
+        tabList.queueRemove(uuid);
+        profiles.unpin(name);
+        if (coordinator != null) {
+            coordinator.announceLeave(name);
         }
+        invalidatePingSnapshot();
+        metrics.recordHandler("removeFakePlayer", start);
     }
 
-    private void sendFakePlayerRemove(Player receiver, UUID uuid) {
-        try {
-            CraftPlayer craftPlayer = (CraftPlayer) receiver;
-
-            ClientboundPlayerInfoRemovePacket packet = new ClientboundPlayerInfoRemovePacket(
-                    Collections.singletonList(uuid)
-            );
-
-            craftPlayer.getHandle().connection.send(packet);
-        } catch (Exception e) {
-            getLogger().severe("Error removing fake player with UUID " + uuid + ": " + e.getMessage());
-            if (e.getCause() != null) {
-                getLogger().severe("Caused by: " + e.getCause().getMessage());
-            }
-        }
+    private int randomLatency() {
+        return random.nextInt(4) > 0
+                ? random.nextInt(150)
+                : random.nextInt(150, 300);
     }
 
     @EventHandler
     public void onPlayerJoin(PlayerJoinEvent event) {
+        long start = System.nanoTime();
         Player joining = event.getPlayer();
+        realNames.add(joining.getName());
         String joinMsg = joining.getName() + " joined the game";
         addRecentMessage(joinMsg);
-        for (String fakeName : currentFakePlayers) {
-            UUID uuid = fakePlayerUUIDs.get(fakeName);
-            if (uuid != null) {
-                sendFakePlayerAdd(joining, fakeName, uuid);
+
+        // Send the whole fake roster in a single packet.
+        List<String> online = roster.online();
+        List<ClientboundPlayerInfoUpdatePacket.Entry> entries = new ArrayList<>(online.size());
+        for (String fakeName : online) {
+            PlayerFakeAllData data = profiles.get(fakeName);
+            if (data != null) {
+                // Same latency the other players currently see for this fake.
+                entries.add(data.tabListEntry(Math.max(0, latencySimulator.latency(fakeName))));
             }
         }
+        tabList.sendRoster(joining, entries);
+        invalidatePingSnapshot();
+        metrics.recordHandler("onPlayerJoin", start);
     }
 
     @EventHandler
     public void onPlayerQuit(PlayerQuitEvent event) {
         Player leaving = event.getPlayer();
+        realNames.remove(leaving.getName());
         String quitMsg = leaving.getName() + " left the game";
         addRecentMessage(quitMsg);
+        // The leaving player is still counted online during this event, so the rebuild waits a tick.
+        invalidatePingSnapshot();
     }
 
     @EventHandler
@@ -353,52 +651,67 @@ public class FakePlayers extends JavaPlugin implements Listener {
         }
     }
 
+    // Pings can arrive thousands of times a minute from scanners, so this only copies references
+    // out of the prebuilt snapshot.
     @EventHandler
     public void onPaperServerListPing(PaperServerListPingEvent event) {
-        int realCount = Bukkit.getOnlinePlayers().size();
-        int allowedFake = Math.max(0, maxPlayers - realCount);
+        long start = System.nanoTime();
+        metrics.recordPing();
+        if (pingRateTracker != null && event.getClient().getAddress() != null) {
+            pingRateTracker.record(event.getClient().getAddress().getAddress());
+        }
 
+        PingSnapshot snapshot = pingSnapshot;
+        event.setNumPlayers(snapshot.numPlayers);
+        List<PaperServerListPingEvent.ListedPlayerInfo> listed = event.getListedPlayers();
+        listed.clear();
+        for (int i = 0; i < snapshot.listedPlayers.size(); i++) {
+            listed.add(snapshot.listedPlayers.get(i));
+        }
+        event.setMaxPlayers(snapshot.maxPlayers);
+        metrics.recordHandler("onPaperServerListPing", start);
+    }
+
+    // Rebuilds the ping snapshot on the next tick, once for any number of changes before then.
+    private void invalidatePingSnapshot() {
+        // Tasks can't be scheduled while disabling, and nobody is pinging a stopping server.
+        if (pingRebuildScheduled || !isEnabled()) {
+            return;
+        }
+        pingRebuildScheduled = true;
+        Bukkit.getScheduler().runTask(this, this::rebuildPingSnapshot);
+    }
+
+    private void rebuildPingSnapshot() {
+        pingRebuildScheduled = false;
+        pingSnapshot = PingSnapshot.build(++pingSnapshotVersion, roster.online(), profiles::get,
+                Bukkit.getOnlinePlayers().size(), maxPlayers);
+    }
+
+    // Server list entries for up to limit online fakes.
+    static List<PaperServerListPingEvent.ListedPlayerInfo> listedPlayers(Collection<String> online,
+                                                                        java.util.function.Function<String, PlayerFakeAllData> data, int limit) {
         List<PaperServerListPingEvent.ListedPlayerInfo> fakeList = new ArrayList<>();
         int count = 0;
-        for (Map.Entry<String, UUID> entry : fakePlayerUUIDs.entrySet()) {
-            if (count < allowedFake) {
-                fakeList.add(
-                        new PaperServerListPingEvent.ListedPlayerInfo(
-                                entry.getKey(),
-                                entry.getValue()
-                        )
-                );
-                count++;
-            } else {
+        for (String fakeName : online) {
+            if (count >= limit) {
                 break;
             }
+            PlayerFakeAllData fake = data.apply(fakeName);
+            if (fake != null) {
+                fakeList.add(fake.listedInfo);
+                count++;
+            }
         }
-
-        event.setNumPlayers(realCount + fakeList.size());
-        event.getListedPlayers().clear();
-        event.getListedPlayers().addAll(fakeList);
-        event.setMaxPlayers(maxPlayers);
+        return fakeList;
     }
 
-    private void handleBotResponse(String speaker, String response) {
-        long currentTime = System.currentTimeMillis();
-        Long lastTime = lastResponseTimes.get(speaker);
-        if (lastTime != null && currentTime - lastTime < 15000) { // 15 seconds
-            return;
-        }
-        lastResponseTimes.put(speaker, currentTime);
-
+    // partner is the real player being answered, or null when the fake speaks unprompted.
+    private void handleBotResponse(String speaker, String response, long requestedAt, String partner) {
         if (response != null && !response.trim().isEmpty()) {
-            String cleanResponse = response
-                    .replaceAll("(?i)<[^>]*>", "")
-                    .replaceAll("(?i)\\*?" + speaker + "\\*?:\\s*", "")
-                    .replaceAll("^[\"']|[\"']$", "")
-                    .replaceAll("\n.*", "")
-                    .replaceAll("\"\"", "")
-                    .replaceAll("[^\\p{ASCII}]", "")
-                    .trim();
-
-            if (!cleanResponse.isEmpty() && cleanResponse.length() <= 240) {
+            String cleanResponse = ResponseSanitizer.sanitize(speaker, response);
+
+            if (ResponseSanitizer.isUsable(cleanResponse)) {
                 final String finalResponse = cleanResponse;
 
                 int baseDelay = (int)(finalResponse.length() * (60.0/250.0) * 20); // Convert to ticks
@@ -406,37 +719,244 @@ public class FakePlayers extends JavaPlugin implements Listener {
                 int totalDelay = baseDelay + randomVariation;
 
                 Bukkit.getScheduler().runTaskLater(this, () -> {
-                    if (currentFakePlayers.contains(speaker)) {
-                        String botMessage = String.format("<%s> %s", speaker, finalResponse);
-                        addRecentMessage(botMessage);
-                        Bukkit.broadcast(
-                                Component.text("<")
-                                        .append(Component.text(speaker).color(NamedTextColor.WHITE))
-                                        .append(Component.text("> "))
-                                        .append(Component.text(finalResponse))
-                        );
+                    if (roster.isOnline(speaker) || (coordinator != null && coordinator.isRemoteOnline(speaker))) {
+                        metrics.recordTimeToPost(System.nanoTime() - requestedAt);
+                        String botMessage = postFakeChat(speaker, finalResponse);
+                        if (memory != null && partner != null) {
+                            memory.record(speaker, partner, botMessage);
+                        }
+                        if (coordinator != null) {
+                            coordinator.publishChat(speaker, finalResponse);
+                        }
                     }
                 }, totalDelay);
             }
         }
     }
 
+    // Shows a fake's line in chat and adds it to the history. Returns the line as stored.
+    private String postFakeChat(String speaker, String line) {
+        String botMessage = String.format("<%s> %s", speaker, line);
+        addRecentMessage(botMessage);
+        Bukkit.broadcast(
+                Component.text("<")
+                        .append(Component.text(speaker).color(NamedTextColor.WHITE))
+                        .append(Component.text("> "))
+                        .append(Component.text(line))
+        );
+        return botMessage;
+    }
+
+    // With coordination only the leader speaks unprompted, for any fake online in the network.
+    private String randomChatSpeaker() {
+        if (coordinator == null) {
+            return roster.randomOnline(random);
+        }
+        if (!coordinator.isLeader()) {
+            return null;
+        }
+        List<String> local = roster.online();
+        List<String> remote = coordinator.remoteOnline();
+        int total = local.size() + remote.size();
+        if (total == 0) {
+            return null;
+        }
+        int pick = random.nextInt(total);
+        return pick < local.size() ? local.get(pick) : remote.get(pick - local.size());
+    }
+
     private void scheduleRandomChat() {
         if (!enableChat || chatAI == null) {
             return;
         }
 
         long delay = random.nextInt(5000, 40000);
-        Bukkit.getScheduler().runTaskLaterAsynchronously(this, () -> {
-            if (!currentFakePlayers.isEmpty() && random.nextDouble() > 0.65) {
-                List<String> players = new ArrayList<>(currentFakePlayers);
-                String speaker = players.get(random.nextInt(players.size()));
-                handleBotResponse(speaker, chatAI.generateResponse(speaker, recentMessages));
+        Bukkit.getScheduler().runTaskLater(this, () -> {
+            String speaker = randomChatSpeaker();
+            // A fake that is already generating a line stays quiet until it is posted.
+            if (speaker != null && random.nextDouble() > 0.65 && !chatAdmission.isInFlight(speaker)) {
+                // Timer-driven chat prefers a prefetched line so it posts without waiting on the API.
+                String prefetched = chatAI.pollOffTopic(speaker);
+                if (prefetched != null) {
+                    long requestedAt = System.nanoTime();
+                    CompletableFuture<String> line = chatAdmission.submit(speaker, () -> CompletableFuture.completedFuture(prefetched));
+                    if (line != null) {
+                        line.thenAccept(response -> handleBotResponse(speaker, response, requestedAt, null));
+                    }
+                } else {
+                    requestBotResponse(speaker, null, GenerationScheduler.Priority.AMBIENT);
+                }
             }
             scheduleRandomChat();
         }, delay);
     }
 
+    // All drifted latencies from one run go out in a single packet per receiver on the next flush.
+    private void scheduleLatencyDrift() {
+        long period = getConfig().getInt("latency-update-seconds", 10) * 20L;
+        if (period <= 0) {
+            return;
+        }
+        Bukkit.getScheduler().runTaskTimer(this, () -> {
+            long start = System.nanoTime();
+            latencySimulator.tick();
+            metrics.recordHandler("latencyDrift", start);
+        }, period, period);
+    }
+
+    // Writes metrics.prom for a Prometheus node exporter textfile collector or similar.
+    private void scheduleMetricsExport() {
+        long period = getConfig().getInt("metrics-export-seconds", 60) * 20L;
+        if (period <= 0) {
+            return;
+        }
+        java.nio.file.Path file = new File(getDataFolder(), "metrics.prom").toPath();
+        Bukkit.getScheduler().runTaskTimerAsynchronously(this, () -> {
+            try {
+                metrics.writePrometheus(file);
+            } catch (java.io.IOException e) {
+                getLogger().warning("Could not write metrics: " + e.getMessage());
+            }
+        }, period, period);
+    }
+
+    // Hourly, since the history only changes a few times an hour. Also saved on disable.
+    private void schedulePopulationSave() {
+        long period = 60 * 60 * 20L;
+        Bukkit.getScheduler().runTaskTimerAsynchronously(this, population::save, period, period);
+    }
+
+    // Appends queued memory lines every five seconds and compacts large logs hourly.
+    private void scheduleMemoryMaintenance() {
+        if (memory == null) {
+            return;
+        }
+        Bukkit.getScheduler().runTaskTimerAsynchronously(this, memory::flush, 100L, 100L);
+        long compactPeriod = 60 * 60 * 20L;
+        Bukkit.getScheduler().runTaskTimerAsynchronously(this, memory::compact, compactPeriod, compactPeriod);
+    }
+
+    // Breaker state is also saved on disable; this covers crashes.
+    private void scheduleModelHealthSave() {
+        if (modelRouter == null) {
+            return;
+        }
+        long period = 5 * 60 * 20L;
+        Bukkit.getScheduler().runTaskTimerAsynchronously(this, modelRouter::save, period, period);
+    }
+
+    // Starts queued generations as soon as the rate limit and in-flight slots allow.
+    private void scheduleGenerationDrain() {
+        if (generations == null) {
+            return;
+        }
+        Bukkit.getScheduler().runTaskTimer(this, generations::drain, 1L, 1L);
+    }
+
+    // Tops up the off-topic pools of online fakes in small batches, only while no other
+    // generation is waiting on the API. Prefetches go through the scheduler at the lowest
+    // priority, so they count against its concurrency and rate limits like any other request.
+    private void scheduleOffTopicRefill() {
+        if (!enableChat || chatAI == null || !offTopicPool.isEnabled()) {
+            return;
+        }
+
+        long period = getConfig().getInt("prefetch-refill-seconds", 60) * 20L;
+        int batchSize = getConfig().getInt("prefetch-batch-size", 2);
+        Bukkit.getScheduler().runTaskTimer(this, () -> {
+            // Only unprompted chat uses the pool, and with coordination only the leader has any.
+            if (chatAI.getInFlightCount() > 0 || !generations.isIdle() || (coordinator != null && !coordinator.isLeader())) {
+                return;
+            }
+            Set<String> personalities = new HashSet<>();
+            int started = 0;
+            for (String fakeName : roster.online()) {
+                PlayerFakeAllData data = profiles.get(fakeName);
+                if (data == null || !personalities.add(data.personality)) {
+                    continue;
+                }
+                int missing = Math.min(offTopicPool.missing(data.personality), batchSize - started);
+                for (int i = 0; i < missing; i++) {
+                    // Keyed per line so one prefetch doesn't supersede another; the pool doesn't
+                    // depend on chat, so its context version never changes.
+                    generations.submit("\0prefetch\0" + data.personality + '\0' + i,
+                            GenerationScheduler.Priority.PREFETCH, () -> 0L, () -> chatAI.prefetchOffTopic(data));
+                    started++;
+                }
+                if (started >= batchSize) {
+                    break;
+                }
+            }
+        }, period, period);
+    }
+
+    // Queues a generation; the response is handled on the HTTP client's thread. The prompt is
+    // built when the job starts, and the cooldown and in-flight checks run first so skipped
+    // triggers never cost a request. The job is dropped if chat moves on before it is answered.
+    // partner is the real player being answered, or null; the fake's memories of them go in the prompt.
+    private void requestBotResponse(String speaker, String partner, GenerationScheduler.Priority priority) {
+        long requestedAt = System.nanoTime();
+        generations.submit(speaker, priority, recentMessages::version,
+                () -> chatAdmission.submit(speaker, () -> chatAI.generateResponseAsync(
+                        speaker, recentMessages.snapshot(),
+                        memory != null && partner != null ? memory.recall(speaker, partner) : List.of())))
+                .thenAccept(response -> handleBotResponse(speaker, response, requestedAt, partner));
+    }
+
+    // Answers a whisper with a whisper back to the sender only. Runs on the main thread.
+    private void requestWhisperReply(Player player, String fake, String content) {
+        String playerName = player.getName();
+        String line = String.format("<%s> %s", playerName, content);
+        RecentMessageBuffer conversation = conversations.computeIfAbsent(fake + '\0' + player.getUniqueId(),
+                key -> new RecentMessageBuffer(CONVERSATION_LINES, MESSAGE_EXPIRATION_MS));
+        conversation.add(line);
+        // Recalled before this whisper is recorded, so it isn't in the prompt twice.
+        List<String> memories = memory != null ? memory.recall(fake, playerName) : List.of();
+        if (memory != null) {
+            memory.record(fake, playerName, playerName + " whispered: " + content);
+        }
+
+        long requestedAt = System.nanoTime();
+        UUID playerId = player.getUniqueId();
+        String key = fake + '\0' + playerId;
+        generations.submit(key, GenerationScheduler.Priority.WHISPER, conversation::version,
+                () -> whisperAdmission.submit(key,
+                        () -> chatAI.generateWhisperAsync(fake, playerName, conversation.snapshot(), memories)))
+                .whenComplete((response, error) -> handleWhisperReply(fake, playerId, conversation,
+                        error == null ? response : null, requestedAt));
+    }
+
+    // response is null if the whisper was dropped, declined or failed.
+    private void handleWhisperReply(String fake, UUID playerId, RecentMessageBuffer conversation,
+                                    String response, long requestedAt) {
+        String cleanResponse = response != null ? ResponseSanitizer.sanitize(fake, response) : null;
+        if (cleanResponse == null || !ResponseSanitizer.isUsable(cleanResponse)) {
+            metrics.recordWhisperUnanswered();
+            return;
+        }
+
+        // Someone in a private conversation is waiting, so type quicker than in public chat.
+        int typingDelay = Math.min(60, (int) (cleanResponse.length() * (60.0 / 500.0) * 20));
+        Bukkit.getScheduler().runTaskLater(this, () -> {
+            Player player = Bukkit.getPlayer(playerId);
+            if (player == null || !(roster.isOnline(fake) || (coordinator != null && coordinator.isRemoteOnline(fake)))) {
+                metrics.recordWhisperUnanswered();
+                return;
+            }
+            metrics.recordWhisperReply(System.nanoTime() - requestedAt);
+            player.sendMessage(Component.text()
+                    .content(fake + " whispers to you: " + cleanResponse)
+                    .color(NamedTextColor.GRAY)
+                    .decoration(net.kyori.adventure.text.format.TextDecoration.ITALIC, true)
+                    .build());
+            String line = String.format("<%s> %s", fake, cleanResponse);
+            conversation.add(line);
+            if (memory != null) {
+                memory.record(fake, player.getName(), fake + " whispered back: " + cleanResponse);
+            }
+        }, typingDelay);
+    }
+
     @EventHandler
     public void onPlayerChat(AsyncChatEvent event) {
         if (!enableChat || chatAI == null || event.isCancelled()) return;
@@ -447,48 +967,55 @@ public class FakePlayers extends JavaPlugin implements Listener {
         String formattedMessage = String.format("<%s> %s", playerName, message);
         addRecentMessage(formattedMessage);
 
-        if (random.nextDouble() > 0.85 && !currentFakePlayers.isEmpty()) {
-            List<String> players = new ArrayList<>(currentFakePlayers);
-            String speaker = players.get(random.nextInt(players.size()));
+        // Check if the message contains a fake player's name.
+        String fakeName = fakeNames.findMention(message);
+        if (fakeName != null && memory != null) {
+            memory.record(fakeName, playerName, formattedMessage);
+        }
+
+        String speaker = roster.randomOnline(random);
+        if (random.nextDouble() > 0.85 && speaker != null) {
 
-            Bukkit.getScheduler().runTaskLaterAsynchronously(this, () -> {
-                handleBotResponse(speaker, chatAI.generateResponse(speaker, recentMessages));
-            }, 20L + random.nextInt(40));
+            Bukkit.getScheduler().runTaskLater(this,
+                    () -> requestBotResponse(speaker, playerName, GenerationScheduler.Priority.REPLY), 20L + random.nextInt(40));
             return;
         }
 
-        // Check if the message contains a fake player's name.
-        String lowerMessage = message.toLowerCase();
-        for (String fakeName : currentFakePlayers) {
-            if (lowerMessage.contains(fakeName.toLowerCase())) {
-                // Only respond with a 30% chance even if the name is included.
-                if (random.nextDouble() > 0.7) {
-                    Bukkit.getScheduler().runTaskLaterAsynchronously(this, () -> {
-                        handleBotResponse(fakeName, chatAI.generateResponse(fakeName, recentMessages));
-                    }, 20L + random.nextInt(40));
-                }
-                // Whether responding or not, return here so we don't trigger additional responses.
-                return;
+        if (fakeName != null) {
+            // Only respond with a 30% chance even if the name is included.
+            if (random.nextDouble() > 0.7) {
+                Bukkit.getScheduler().runTaskLater(this,
+                        () -> requestBotResponse(fakeName, playerName, GenerationScheduler.Priority.MENTION), 20L + random.nextInt(40));
             }
         }
     }
 
     @EventHandler
     public void onCommand(PlayerCommandPreprocessEvent event) {
+        long start = System.nanoTime();
+        try {
+            handleCommand(event);
+        } finally {
+            metrics.recordHandler("onCommand", start);
+        }
+    }
+
+    private void handleCommand(PlayerCommandPreprocessEvent event) {
         String message = event.getMessage();
         String lowerMessage = message.toLowerCase();
 
         if (lowerMessage.startsWith("/list")) {
             event.setCancelled(true);
             int realCount = Bukkit.getOnlinePlayers().size();
-            int fakeCount = currentFakePlayers.size();
+            List<String> online = roster.online();
+            int fakeCount = online.size();
             int totalCount = realCount + fakeCount;
 
             List<Component> nameComponents = new ArrayList<>();
             for (Player player : Bukkit.getOnlinePlayers()) {
                 nameComponents.add(player.displayName());
             }
-            for (String fakeName : currentFakePlayers) {
+            for (String fakeName : online) {
                 nameComponents.add(Component.text(fakeName).color(NamedTextColor.WHITE));
             }
 
@@ -509,10 +1036,10 @@ public class FakePlayers extends JavaPlugin implements Listener {
         else if (lowerMessage.startsWith("/msg ") || lowerMessage.startsWith("/tell ") || lowerMessage.startsWith("/w ")) {
             String[] parts = message.split(" ", 3);
             if (parts.length >= 3) {
-                String targetName = parts[1];
                 String whisperContent = parts[2];
+                String targetName = fakeNames.lookup(parts[1]);
 
-                if (currentFakePlayers.contains(targetName)) {
+                if (targetName != null) {
                     event.setCancelled(true);
 
                     Component whisperFeedback = Component.text()
@@ -522,7 +1049,12 @@ public class FakePlayers extends JavaPlugin implements Listener {
                             .build();
                     
                     event.getPlayer().sendMessage(whisperFeedback);
-                    // No AI response - just let the message appear to be sent for now.
+                    if (enableChat && chatAI != null && whisperReplies) {
+                        requestWhisperReply(event.getPlayer(), targetName, whisperContent);
+                    } else if (memory != null) {
+                        memory.record(targetName, event.getPlayer().getName(),
+                                event.getPlayer().getName() + " whispered: " + whisperContent);
+                    }
                 }
             }
         }
@@ -532,7 +1064,7 @@ public class FakePlayers extends JavaPlugin implements Listener {
                 String targetName = parts[1];
                 
                 // Case-insensitive check for fake players
-                String fakePlayer = findFakePlayerIgnoreCase(targetName);
+                String fakePlayer = fakeNames.lookup(targetName);
                 
                 if (fakePlayer != null) {
                     event.setCancelled(true);
@@ -564,43 +1096,56 @@ public class FakePlayers extends JavaPlugin implements Listener {
         }
     }
 
-    // Helper method to find a fake player ignoring case
-    private String findFakePlayerIgnoreCase(String name) {
-        String lowerName = name.toLowerCase();
-        for (String fakePlayer : currentFakePlayers) {
-            if (fakePlayer.toLowerCase().equals(lowerName)) {
-                return fakePlayer;
+    @Override
+    public boolean onCommand(org.bukkit.command.CommandSender sender, org.bukkit.command.Command command, String label, String[] args) {
+        if (!command.getName().equalsIgnoreCase("fakeplayers")) {
+            return false;
+        }
+        if (args.length == 1 && args[0].equalsIgnoreCase("stats")) {
+            for (String line : metrics.statsLines()) {
+                sender.sendMessage(Component.text(line).color(NamedTextColor.GRAY));
+            }
+            if (modelRouter != null) {
+                sender.sendMessage(Component.text("Model health:").color(NamedTextColor.GRAY));
+                for (String line : modelRouter.describe()) {
+                    sender.sendMessage(Component.text("  " + line).color(NamedTextColor.GRAY));
+                }
             }
+            sender.sendMessage(Component.text(profiles.describe()).color(NamedTextColor.GRAY));
+            if (coordinator != null) {
+                sender.sendMessage(Component.text(coordinator.describe()).color(NamedTextColor.GRAY));
+            }
+            return true;
         }
-        return null;
+        if (args.length == 1 && args[0].equalsIgnoreCase("reload")) {
+            reloadProfiles(sender);
+            return true;
+        }
+        return false;
     }
 
     // Implement tab completion for commands
     @Override
     public List<String> onTabComplete(org.bukkit.command.CommandSender sender, org.bukkit.command.Command command, String alias, String[] args) {
         if (command.getName().equalsIgnoreCase("tpa") && args.length == 1) {
-            String partialName = args[0].toLowerCase();
-            List<String> suggestions = new ArrayList<>();
-
-            // Add real players to suggestions
-            for (Player player : Bukkit.getOnlinePlayers()) {
-                if (player.getName().toLowerCase().startsWith(partialName)) {
-                    suggestions.add(player.getName());
-                }
-            }
-
-            // Add fake players to suggestions
-            for (String fakeName : currentFakePlayers) {
-                if (fakeName.toLowerCase().startsWith(partialName)) {
-                    suggestions.add(fakeName);
-                }
-            }
+            // Real and fake players whose names start with the typed prefix
+            List<String> suggestions = realNames.complete(args[0]);
+            suggestions.addAll(fakeNames.complete(args[0]));
 
             // Sort alphabetically (standard tab completion behavior)
             Collections.sort(suggestions);
 
             return suggestions;
         }
+        if (command.getName().equalsIgnoreCase("fakeplayers") && args.length == 1) {
+            List<String> suggestions = new ArrayList<>();
+            for (String option : List.of("reload", "stats")) {
+                if (option.startsWith(args[0].toLowerCase())) {
+                    suggestions.add(option);
+                }
+            }
+            return suggestions;
+        }
 
         // Return null for default behavior in other cases
         return null;
@@ -0,0 +1,122 @@
+package com.jellypudding.fakePlayers;
+
+import java.util.*;
+
+// Which fake profiles are online. Online and offline names are each kept in an indexed list,
+// so moving a profile between them or picking one at random is O(1) (removal swaps the last
+// element into the gap). Changes must happen on the main thread; each one publishes an
+// immutable copy of the online list, which any thread may read through online().
+public class FakeRoster {
+
+    private final List<String> online = new ArrayList<>();
+    private final Map<String, Integer> onlineIndex = new HashMap<>();
+    private final List<String> offline = new ArrayList<>();
+    private final Map<String, Integer> offlineIndex = new HashMap<>();
+    // Online names whose profile was removed; they leave the roster entirely once they go offline.
+    private final Set<String> retired = new HashSet<>();
+    private volatile List<String> onlineSnapshot = List.of();
+
+    // Replaces the known profiles. Online names stay online; the ones that are no longer known
+    // are retired and dropped when they go offline.
+    public void setProfiles(Collection<String> names) {
+        Set<String> known = new HashSet<>(names);
+        retired.clear();
+        for (String name : online) {
+            if (!known.contains(name)) {
+                retired.add(name);
+            }
+        }
+        offline.clear();
+        offlineIndex.clear();
+        for (String name : known) {
+            if (!onlineIndex.containsKey(name)) {
+                append(offline, offlineIndex, name);
+            }
+        }
+        publish();
+    }
+
+    // Returns false if the name is unknown or already online.
+    public boolean markOnline(String name) {
+        if (!swapRemove(offline, offlineIndex, name)) {
+            return false;
+        }
+        append(online, onlineIndex, name);
+        publish();
+        return true;
+    }
+
+    // Returns false if the name is unknown or already offline.
+    public boolean markOffline(String name) {
+        if (!swapRemove(online, onlineIndex, name)) {
+            return false;
+        }
+        if (!retired.remove(name)) {
+            append(offline, offlineIndex, name);
+        }
+        publish();
+        return true;
+    }
+
+    // Marks every profile offline.
+    public void clear() {
+        for (String name : online) {
+            if (!retired.remove(name)) {
+                append(offline, offlineIndex, name);
+            }
+        }
+        online.clear();
+        onlineIndex.clear();
+        publish();
+    }
+
+    public boolean isOnline(String name) {
+        return onlineIndex.containsKey(name);
+    }
+
+    public int onlineCount() {
+        return online.size();
+    }
+
+    public int offlineCount() {
+        return offline.size();
+    }
+
+    // Safe from any thread. Returns null if nobody is online.
+    public String randomOnline(Random random) {
+        List<String> snapshot = onlineSnapshot;
+        return snapshot.isEmpty() ? null : snapshot.get(random.nextInt(snapshot.size()));
+    }
+
+    // Returns null if every profile is online.
+    public String randomOffline(Random random) {
+        return offline.isEmpty() ? null : offline.get(random.nextInt(offline.size()));
+    }
+
+    // Immutable view of the online names, safe from any thread.
+    public List<String> online() {
+        return onlineSnapshot;
+    }
+
+    private void publish() {
+        onlineSnapshot = List.copyOf(online);
+    }
+
+    private static void append(List<String> list, Map<String, Integer> index, String name) {
+        index.put(name, list.size());
+        list.add(name);
+    }
+
+    private static boolean swapRemove(List<String> list, Map<String, Integer> index, String name) {
+        Integer position = index.remove(name);
+        if (position == null) {
+            return false;
+        }
+        String last = list.remove(list.size() - 1);
+        if (position < list.size()) {
+            list.set(position, last);
+            index.put(last, position);
+        }
+        return true;
+    }
+}
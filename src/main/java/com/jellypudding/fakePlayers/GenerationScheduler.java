@@ -0,0 +1,212 @@
+package com.jellypudding.fakePlayers;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+// Runs every chat generation through one queue, most urgent priority first and oldest first
+// within a priority, under a global concurrency and rate limit. Each job has a deadline: it is
+// dropped once it is older than maxAge or once more than staleLines lines were added to its
+// context after it was submitted, checked both before it starts and when its response arrives,
+// so a reply is never posted after the conversation has moved on. A newer job for the same key
+// replaces a queued one, and a job whose generation was merged into a running one (see
+// ChatAdmission) is dropped, so each generation is handled by one job only. submit() and drain()
+// are main thread only; responses may complete on any thread.
+public class GenerationScheduler {
+
+    // Most urgent first. PREFETCH fills OffTopicPool and only runs when nothing else is waiting.
+    public enum Priority {
+        WHISPER, MENTION, REPLY, AMBIENT, PREFETCH;
+
+        final String label = name().toLowerCase(Locale.ROOT);
+    }
+
+    private static final class Job {
+        final String key;
+        final Priority priority;
+        final long order;
+        final long submittedAt;
+        final LongSupplier contextVersion;
+        final long version;
+        final Supplier<CompletableFuture<String>> generation;
+        final CompletableFuture<String> result = new CompletableFuture<>();
+
+        Job(String key, Priority priority, long order, LongSupplier contextVersion,
+            Supplier<CompletableFuture<String>> generation) {
+            this.key = key;
+            this.priority = priority;
+            this.order = order;
+            this.submittedAt = System.nanoTime();
+            this.contextVersion = contextVersion;
+            this.version = contextVersion.getAsLong();
+            this.generation = generation;
+        }
+    }
+
+    private final int maxRunning;
+    private final int reservedWhispers;
+    private final int maxQueued;
+    private final long maxAgeNanos;
+    private final int staleLines;
+    private final Metrics metrics;
+    private final PriorityQueue<Job> queue = new PriorityQueue<>(
+            Comparator.<Job>comparingInt(job -> job.priority.ordinal()).thenComparingLong(job -> job.order));
+    private final Map<String, Job> queuedByKey = new HashMap<>();
+    // Decremented from whichever thread a response completes on.
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger runningWhispers = new AtomicInteger();
+    // Generations already handed to a job. Held weakly rather than removed on completion, so a
+    // merged future that completes before its second job starts is still recognised.
+    private final Set<CompletableFuture<String>> owned = Collections.newSetFromMap(new WeakHashMap<>());
+    private long nextOrder = 0;
+
+    // Token bucket: ratePerMinute tokens a minute, holding enough to fill every slot at once.
+    private final double tokensPerNano;
+    private double tokens;
+    private long lastRefill = System.nanoTime();
+
+    // maxRunning and reservedWhispers match ChatAI's in-flight limits. Every ChatAI request,
+    // including off-topic prefetches, goes through this scheduler, so a started job is never
+    // turned away there.
+    public GenerationScheduler(int maxRunning, int reservedWhispers, int ratePerMinute, int maxQueued,
+                               long maxAgeMs, int staleLines, Metrics metrics) {
+        this.maxRunning = Math.max(1, maxRunning);
+        this.reservedWhispers = Math.max(0, reservedWhispers);
+        this.maxQueued = Math.max(1, maxQueued);
+        this.maxAgeNanos = maxAgeMs * 1_000_000;
+        this.staleLines = staleLines;
+        this.metrics = metrics;
+        this.tokensPerNano = Math.max(1, ratePerMinute) / 60e9;
+        this.tokens = this.maxRunning + this.reservedWhispers;
+    }
+
+    // Queues a generation. contextVersion is the version of the history the prompt is built
+    // from, such as RecentMessageBuffer::version. generation is only called when the job starts
+    // and may return null to decline it. The result completes with the response, or null if the
+    // request failed; it is cancelled if the job was dropped or declined.
+    public CompletableFuture<String> submit(String key, Priority priority, LongSupplier contextVersion,
+                                            Supplier<CompletableFuture<String>> generation) {
+        Job job = new Job(key, priority, nextOrder++, contextVersion, generation);
+        Job existing = queuedByKey.get(key);
+        if (existing != null) {
+            // A more urgent queued job for the same key answers this one too.
+            if (existing.priority.compareTo(priority) < 0) {
+                drop(job, "superseded");
+                return job.result;
+            }
+            remove(existing);
+            drop(existing, "superseded");
+        }
+        if (queue.size() >= maxQueued) {
+            Job leastUrgent = Collections.max(queue, queue.comparator());
+            if (queue.comparator().compare(job, leastUrgent) > 0) {
+                drop(job, "overflow");
+                return job.result;
+            }
+            remove(leastUrgent);
+            drop(leastUrgent, "overflow");
+        }
+        queue.add(job);
+        queuedByKey.put(key, job);
+        drain();
+        return job.result;
+    }
+
+    // Drops expired jobs and starts as many queued ones as the limits allow. Call every tick.
+    public void drain() {
+        long now = System.nanoTime();
+        tokens = Math.min(maxRunning + reservedWhispers, tokens + (now - lastRefill) * tokensPerNano);
+        lastRefill = now;
+
+        if (!queue.isEmpty()) {
+            queue.removeIf(job -> {
+                if (!isStale(job, now)) {
+                    return false;
+                }
+                queuedByKey.remove(job.key);
+                drop(job, "expired");
+                return true;
+            });
+        }
+        while (!queue.isEmpty() && tokens >= 1) {
+            AtomicInteger lane = lane(queue.peek().priority);
+            if (lane == null) {
+                // Anything behind the head is no more urgent, so it can't start either.
+                break;
+            }
+            Job job = queue.poll();
+            queuedByKey.remove(job.key);
+            metrics.recordGenerationWait(job.priority.label, now - job.submittedAt);
+            if (start(job, lane)) {
+                tokens -= 1;
+            }
+        }
+        metrics.setGenerationQueueDepth(queue.size());
+    }
+
+    // True if nothing is queued or running, e.g. so background prefetching can use the API.
+    public boolean isIdle() {
+        return queue.isEmpty() && running.get() == 0 && runningWhispers.get() == 0;
+    }
+
+    // Whispers use their reserved slots first, then the shared ones. Null if the job can't start.
+    private AtomicInteger lane(Priority priority) {
+        if (priority == Priority.WHISPER && runningWhispers.get() < reservedWhispers) {
+            return runningWhispers;
+        }
+        return running.get() < maxRunning ? running : null;
+    }
+
+    // Returns whether a request was actually started.
+    private boolean start(Job job, AtomicInteger lane) {
+        lane.incrementAndGet();
+        CompletableFuture<String> future;
+        try {
+            future = job.generation.get();
+        } catch (RuntimeException e) {
+            lane.decrementAndGet();
+            job.result.completeExceptionally(e);
+            return false;
+        }
+        if (future == null) {
+            // Declined, e.g. by ChatAdmission's cooldown.
+            lane.decrementAndGet();
+            drop(job, "cooldown");
+            return false;
+        }
+        if (!owned.add(future)) {
+            // Merged into a generation another job already answers with.
+            lane.decrementAndGet();
+            drop(job, "merged");
+            return false;
+        }
+        future.whenComplete((response, error) -> {
+            lane.decrementAndGet();
+            if (error != null) {
+                // ChatAI has already logged why.
+                job.result.complete(null);
+            } else if (response != null && isStale(job, System.nanoTime())) {
+                drop(job, "stale");
+            } else {
+                job.result.complete(response);
+            }
+        });
+        return true;
+    }
+
+    private boolean isStale(Job job, long now) {
+        return now - job.submittedAt > maxAgeNanos || job.contextVersion.getAsLong() - job.version > staleLines;
+    }
+
+    private void remove(Job job) {
+        queue.remove(job);
+        queuedByKey.remove(job.key);
+    }
+
+    private void drop(Job job, String reason) {
+        metrics.recordGenerationDrop(job.priority.label, reason);
+        job.result.cancel(false);
+    }
+}
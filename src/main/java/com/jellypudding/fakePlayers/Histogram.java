@@ -0,0 +1,81 @@
+package com.jellypudding.fakePlayers;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// Lock-free histogram with power-of-two buckets: bucket i counts values below 2^i.
+// Recording is one numberOfLeadingZeros plus two LongAdder increments, so it is cheap enough
+// for hot paths. Percentiles are approximate (upper bound of the bucket they fall in).
+public final class Histogram {
+
+    private static final int BUCKETS = 32;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    // Seconds per recorded unit, used when exporting (e.g. 0.001 for milliseconds).
+    private final double unitSeconds;
+
+    public Histogram(double unitSeconds) {
+        this.unitSeconds = unitSeconds;
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(value));
+        buckets[bucket].increment();
+        count.increment();
+        sum.add(value);
+    }
+
+    public long count() {
+        return count.sum();
+    }
+
+    public long sum() {
+        return sum.sum();
+    }
+
+    public long mean() {
+        long n = count.sum();
+        return n == 0 ? 0 : sum.sum() / n;
+    }
+
+    // Upper bound of the bucket holding the q-th quantile (0 < q <= 1), or 0 if empty.
+    public long percentile(double q) {
+        long n = count.sum();
+        if (n == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(q * n);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets[i].sum();
+            if (seen >= rank) {
+                return 1L << i;
+            }
+        }
+        return 1L << (BUCKETS - 1);
+    }
+
+    // Appends this histogram in Prometheus text format, in seconds. labels is either empty or
+    // a comma-separated list like model="x".
+    public void appendPrometheus(StringBuilder out, String name, String labels) {
+        String prefix = labels.isEmpty() ? "" : labels + ",";
+        long cumulative = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            cumulative += buckets[i].sum();
+            out.append(name).append("_bucket{").append(prefix).append("le=\"")
+                    .append((1L << i) * unitSeconds).append("\"} ").append(cumulative).append('\n');
+        }
+        // Built from the buckets read above so the exported counts are always consistent.
+        out.append(name).append("_bucket{").append(prefix).append("le=\"+Inf\"} ").append(cumulative).append('\n');
+        String braces = labels.isEmpty() ? "" : "{" + labels + "}";
+        out.append(name).append("_sum").append(braces).append(' ').append(sum.sum() * unitSeconds).append('\n');
+        out.append(name).append("_count").append(braces).append(' ').append(cumulative).append('\n');
+    }
+}
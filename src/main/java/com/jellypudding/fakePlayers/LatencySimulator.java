@@ -0,0 +1,79 @@
+package com.jellypudding.fakePlayers;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+// Lets each online fake's tab-list ping drift over time as a bounded random walk around the
+// latency it joined with. Changes are handed to TabListBroadcaster, which sends every update
+// from the same tick as one UPDATE_LATENCY packet, so the packet count doesn't grow with the
+// roster. Small changes are not sent. Only used from the main thread.
+public class LatencySimulator {
+
+    private static final class FakeLatency {
+        final UUID uuid;
+        final int anchor;
+        final int spread;
+        double current;
+        int lastSent;
+
+        FakeLatency(UUID uuid, int initial) {
+            this.uuid = uuid;
+            this.anchor = initial;
+            // Low-ping fakes wander a little, high-ping fakes more.
+            this.spread = Math.max(20, initial / 2);
+            this.current = initial;
+            this.lastSent = initial;
+        }
+    }
+
+    private final TabListBroadcaster tabList;
+    private final Random random;
+    private final double stepMs;
+    private final int changeThreshold;
+    private final Map<String, FakeLatency> fakes = new HashMap<>();
+
+    public LatencySimulator(TabListBroadcaster tabList, Random random, double stepMs, int changeThreshold) {
+        this.tabList = tabList;
+        this.random = random;
+        this.stepMs = stepMs;
+        this.changeThreshold = Math.max(1, changeThreshold);
+    }
+
+    public void track(String name, UUID uuid, int initialLatency) {
+        fakes.put(name, new FakeLatency(uuid, initialLatency));
+    }
+
+    public void untrack(String name) {
+        fakes.remove(name);
+    }
+
+    // The latency last sent to clients, or -1 if the fake isn't tracked.
+    public int latency(String name) {
+        FakeLatency fake = fakes.get(name);
+        return fake != null ? fake.lastSent : -1;
+    }
+
+    // Advances every fake one step and queues the changes worth sending.
+    public void tick() {
+        for (FakeLatency fake : fakes.values()) {
+            double next = fake.current + random.nextGaussian() * stepMs;
+            double low = Math.max(1, fake.anchor - fake.spread);
+            double high = fake.anchor + fake.spread;
+            // Reflect off the bounds so the walk doesn't stick to them.
+            if (next < low) {
+                next = Math.min(high, 2 * low - next);
+            } else if (next > high) {
+                next = Math.max(low, 2 * high - next);
+            }
+            fake.current = next;
+
+            int rounded = (int) Math.round(next);
+            if (Math.abs(rounded - fake.lastSent) >= changeThreshold) {
+                fake.lastSent = rounded;
+                tabList.queueLatency(fake.uuid, rounded);
+            }
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.jellypudding.fakePlayers;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+// In-process transport: every transport connected to the same Hub receives the others'
+// broadcasts, synchronously on the sending thread. For running several coordinators in one JVM,
+// e.g. in tests or the load test; on a real server it has no peers.
+public class LoopbackTransport implements RosterTransport {
+
+    public static final class Hub {
+        private final List<LoopbackTransport> members = new CopyOnWriteArrayList<>();
+
+        public LoopbackTransport connect() {
+            return new LoopbackTransport(this);
+        }
+    }
+
+    private final Hub hub;
+    private volatile Consumer<byte[]> receiver;
+
+    private LoopbackTransport(Hub hub) {
+        this.hub = hub;
+    }
+
+    @Override
+    public void start(Consumer<byte[]> receiver) {
+        this.receiver = receiver;
+        hub.members.add(this);
+    }
+
+    @Override
+    public void broadcast(byte[] message) {
+        for (LoopbackTransport member : hub.members) {
+            Consumer<byte[]> target = member.receiver;
+            if (member != this && target != null) {
+                target.accept(message.clone());
+            }
+        }
+    }
+
+    @Override
+    public void stop() {
+        hub.members.remove(this);
+        receiver = null;
+    }
+}
@@ -0,0 +1,348 @@
+package com.jellypudding.fakePlayers;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// Counters and histograms for the plugin's hot paths. Every record method is safe to call from
+// any thread and costs a map lookup plus a few LongAdder increments.
+// Read through statsLines() (for /fakeplayers stats) or renderPrometheus() (for metrics.prom).
+public class Metrics {
+
+    private static final class ModelStats {
+        // Round-trip time of successful requests, in milliseconds.
+        final Histogram roundTrip = new Histogram(0.001);
+        // With streaming, from sending the request to the first usable line, in milliseconds.
+        final Histogram firstLine = new Histogram(0.001);
+        final LongAdder requests = new LongAdder();
+        final LongAdder failures = new LongAdder();
+        final LongAdder timeouts = new LongAdder();
+        final LongAdder refusals = new LongAdder();
+        // Token usage as reported by the API.
+        final LongAdder promptTokens = new LongAdder();
+        final LongAdder completionTokens = new LongAdder();
+    }
+
+    private static final class PacketStats {
+        final LongAdder packets = new LongAdder();
+        // Uncompressed payload bytes, summed over every receiver.
+        final LongAdder bytes = new LongAdder();
+    }
+
+    private final Map<String, ModelStats> models = new ConcurrentHashMap<>();
+    private final Map<String, PacketStats> packets = new ConcurrentHashMap<>();
+    // Main-thread time per event handler or task, in microseconds.
+    private final Map<String, Histogram> handlers = new ConcurrentHashMap<>();
+    // From deciding a fake should speak to the line appearing in chat, in milliseconds.
+    private final Histogram timeToPost = new Histogram(0.001);
+    // From a whisper to a fake arriving to its reply being shown, in milliseconds.
+    private final Histogram whisperReply = new Histogram(0.001);
+    // Replies slower than the SLO, and whispers that got no reply at all.
+    private final LongAdder whisperSlow = new LongAdder();
+    private final LongAdder whisperUnanswered = new LongAdder();
+    private volatile long whisperSloMs = 5000;
+    // Time generation jobs spent queued, per priority, in milliseconds.
+    private final Map<String, Histogram> generationWaits = new ConcurrentHashMap<>();
+    // Generation jobs dropped before their response was used, keyed by priority then reason.
+    private final Map<String, Map<String, LongAdder>> generationDrops = new ConcurrentHashMap<>();
+    private volatile int generationQueueDepth;
+    // ChatAdmission outcomes (admitted, merged, cooldown), keyed by admission name then outcome.
+    private final Map<String, Map<String, LongAdder>> admissions = new ConcurrentHashMap<>();
+    private final LongAdder pings = new LongAdder();
+    // Pings from addresses over the per-minute flood threshold (only with ping tracking on).
+    private final LongAdder floodPings = new LongAdder();
+    // From the last full minute of ping tracking.
+    private volatile int pingSources;
+    private volatile String busiestPingSource = "";
+    private volatile long busiestPingSourceCount;
+
+    public void recordRequest(String model) {
+        model(model).requests.increment();
+    }
+
+    public void recordRoundTrip(String model, long nanos) {
+        model(model).roundTrip.record(nanos / 1_000_000);
+    }
+
+    public void recordFirstLine(String model, long nanos) {
+        model(model).firstLine.record(nanos / 1_000_000);
+    }
+
+    public void recordFailure(String model) {
+        model(model).failures.increment();
+    }
+
+    public void recordTimeout(String model) {
+        model(model).timeouts.increment();
+    }
+
+    public void recordRefusal(String model) {
+        model(model).refusals.increment();
+    }
+
+    public void recordTokens(String model, long promptTokens, long completionTokens) {
+        ModelStats stats = model(model);
+        stats.promptTokens.add(promptTokens);
+        stats.completionTokens.add(completionTokens);
+    }
+
+    public void recordTimeToPost(long nanos) {
+        timeToPost.record(nanos / 1_000_000);
+    }
+
+    public void setWhisperSlo(long millis) {
+        whisperSloMs = millis;
+    }
+
+    public void recordWhisperReply(long nanos) {
+        long millis = nanos / 1_000_000;
+        whisperReply.record(millis);
+        if (millis > whisperSloMs) {
+            whisperSlow.increment();
+        }
+    }
+
+    // The whisper was dropped or declined before a reply, the generation failed or produced
+    // nothing usable, or the player or fake left before the reply was sent.
+    public void recordWhisperUnanswered() {
+        whisperUnanswered.increment();
+    }
+
+    public void recordGenerationWait(String priority, long nanos) {
+        generationWaits.computeIfAbsent(priority, p -> new Histogram(0.001)).record(nanos / 1_000_000);
+    }
+
+    // reason is expired, stale, superseded, overflow, merged or cooldown; see GenerationScheduler.
+    public void recordGenerationDrop(String priority, String reason) {
+        generationDrops.computeIfAbsent(priority, p -> new ConcurrentHashMap<>())
+                .computeIfAbsent(reason, r -> new LongAdder()).increment();
+    }
+
+    public void recordAdmission(String admission, String outcome) {
+        admissions.computeIfAbsent(admission, a -> new ConcurrentHashMap<>())
+                .computeIfAbsent(outcome, o -> new LongAdder()).increment();
+    }
+
+    public void setGenerationQueueDepth(int depth) {
+        generationQueueDepth = depth;
+    }
+
+    public void recordPing() {
+        pings.increment();
+    }
+
+    public void recordFloodPing() {
+        floodPings.increment();
+    }
+
+    public void setPingSources(int sources, String busiest, long busiestCount) {
+        pingSources = sources;
+        busiestPingSource = busiest;
+        busiestPingSourceCount = busiestCount;
+    }
+
+    // kind is the tab-list packet kind (add, remove, latency, roster).
+    public void recordPackets(String kind, long packetCount, long byteCount) {
+        PacketStats stats = packets.computeIfAbsent(kind, k -> new PacketStats());
+        stats.packets.add(packetCount);
+        stats.bytes.add(byteCount);
+    }
+
+    // Call with the System.nanoTime() taken when the handler started.
+    public void recordHandler(String handler, long startNanos) {
+        handlers.computeIfAbsent(handler, h -> new Histogram(0.000001))
+                .record((System.nanoTime() - startNanos) / 1000);
+    }
+
+    private ModelStats model(String model) {
+        return models.computeIfAbsent(model, m -> new ModelStats());
+    }
+
+    // Human-readable summary for /fakeplayers stats.
+    public List<String> statsLines() {
+        List<String> lines = new ArrayList<>();
+        lines.add("LLM requests:");
+        for (Map.Entry<String, ModelStats> entry : new TreeMap<>(models).entrySet()) {
+            ModelStats stats = entry.getValue();
+            long requests = stats.requests.sum();
+            lines.add(String.format("  %s: %d requests, rtt avg %dms p50<%dms p99<%dms, %d failed, %d timed out, %d refused (%s), %d+%d tokens",
+                    entry.getKey(), requests,
+                    stats.roundTrip.mean(), stats.roundTrip.percentile(0.5), stats.roundTrip.percentile(0.99),
+                    stats.failures.sum(), stats.timeouts.sum(), stats.refusals.sum(),
+                    percent(stats.failures.sum() + stats.timeouts.sum() + stats.refusals.sum(), requests),
+                    stats.promptTokens.sum(), stats.completionTokens.sum()));
+            if (stats.firstLine.count() > 0) {
+                lines.add(String.format("    first line: %d streamed, avg %dms p50<%dms p99<%dms",
+                        stats.firstLine.count(), stats.firstLine.mean(),
+                        stats.firstLine.percentile(0.5), stats.firstLine.percentile(0.99)));
+            }
+        }
+        lines.add(String.format("Time to post: %d posted, avg %dms p99<%dms",
+                timeToPost.count(), timeToPost.mean(), timeToPost.percentile(0.99)));
+        long whispers = whisperReply.count() + whisperUnanswered.sum();
+        lines.add(String.format("Whisper replies: %d sent, %d unanswered, avg %dms p99<%dms, %s within the %dms SLO",
+                whisperReply.count(), whisperUnanswered.sum(), whisperReply.mean(), whisperReply.percentile(0.99),
+                percent(whispers - whisperSlow.sum() - whisperUnanswered.sum(), whispers), whisperSloMs));
+        lines.add("Admission:");
+        for (Map.Entry<String, Map<String, LongAdder>> entry : new TreeMap<>(admissions).entrySet()) {
+            Map<String, LongAdder> outcomes = entry.getValue();
+            long merged = sum(outcomes, "merged");
+            long cooldown = sum(outcomes, "cooldown");
+            lines.add(String.format("  %s: %d admitted, %d requests avoided (%d merged, %d cooldown)",
+                    entry.getKey(), sum(outcomes, "admitted"), merged + cooldown, merged, cooldown));
+        }
+        lines.add("Generation queue: " + generationQueueDepth + " queued");
+        Set<String> priorities = new TreeSet<>(generationWaits.keySet());
+        priorities.addAll(generationDrops.keySet());
+        for (String priority : priorities) {
+            Histogram wait = generationWaits.get(priority);
+            StringBuilder line = new StringBuilder(String.format("  %s: %d started, wait avg %dms p99<%dms, dropped",
+                    priority, wait == null ? 0 : wait.count(), wait == null ? 0 : wait.mean(),
+                    wait == null ? 0 : wait.percentile(0.99)));
+            Map<String, LongAdder> drops = generationDrops.getOrDefault(priority, Map.of());
+            if (drops.isEmpty()) {
+                line.append(" none");
+            }
+            for (Map.Entry<String, LongAdder> drop : new TreeMap<>(drops).entrySet()) {
+                line.append(' ').append(drop.getValue().sum()).append(' ').append(drop.getKey());
+            }
+            lines.add(line.toString());
+        }
+        lines.add("Tab-list packets:");
+        for (Map.Entry<String, PacketStats> entry : new TreeMap<>(packets).entrySet()) {
+            lines.add(String.format("  %s: %d packets, %d bytes",
+                    entry.getKey(), entry.getValue().packets.sum(), entry.getValue().bytes.sum()));
+        }
+        lines.add(String.format("Server list pings: %d total, %d from flooding addresses; last minute %d sources, busiest %s (%d)",
+                pings.sum(), floodPings.sum(), pingSources,
+                busiestPingSource.isEmpty() ? "n/a" : busiestPingSource, busiestPingSourceCount));
+        lines.add("Main-thread time:");
+        for (Map.Entry<String, Histogram> entry : new TreeMap<>(handlers).entrySet()) {
+            Histogram histogram = entry.getValue();
+            lines.add(String.format("  %s: %d calls, avg %dus p99<%dus, total %dms",
+                    entry.getKey(), histogram.count(), histogram.mean(), histogram.percentile(0.99),
+                    histogram.sum() / 1000));
+        }
+        return lines;
+    }
+
+    private static long sum(Map<String, LongAdder> counters, String key) {
+        LongAdder counter = counters.get(key);
+        return counter == null ? 0 : counter.sum();
+    }
+
+    private static String percent(long part, long total) {
+        return total == 0 ? "0%" : Math.round(100.0 * part / total) + "%";
+    }
+
+    public String renderPrometheus() {
+        StringBuilder out = new StringBuilder(8192);
+
+        out.append("# TYPE fakeplayers_llm_requests_total counter\n");
+        forEachModel(out, "fakeplayers_llm_requests_total", stats -> stats.requests.sum());
+        out.append("# TYPE fakeplayers_llm_failures_total counter\n");
+        forEachModel(out, "fakeplayers_llm_failures_total", stats -> stats.failures.sum());
+        out.append("# TYPE fakeplayers_llm_timeouts_total counter\n");
+        forEachModel(out, "fakeplayers_llm_timeouts_total", stats -> stats.timeouts.sum());
+        out.append("# TYPE fakeplayers_llm_refusals_total counter\n");
+        forEachModel(out, "fakeplayers_llm_refusals_total", stats -> stats.refusals.sum());
+        out.append("# TYPE fakeplayers_llm_prompt_tokens_total counter\n");
+        forEachModel(out, "fakeplayers_llm_prompt_tokens_total", stats -> stats.promptTokens.sum());
+        out.append("# TYPE fakeplayers_llm_completion_tokens_total counter\n");
+        forEachModel(out, "fakeplayers_llm_completion_tokens_total", stats -> stats.completionTokens.sum());
+        out.append("# TYPE fakeplayers_llm_round_trip_seconds histogram\n");
+        for (Map.Entry<String, ModelStats> entry : models.entrySet()) {
+            entry.getValue().roundTrip.appendPrometheus(out, "fakeplayers_llm_round_trip_seconds", label("model", entry.getKey()));
+        }
+        out.append("# TYPE fakeplayers_llm_first_line_seconds histogram\n");
+        for (Map.Entry<String, ModelStats> entry : models.entrySet()) {
+            entry.getValue().firstLine.appendPrometheus(out, "fakeplayers_llm_first_line_seconds", label("model", entry.getKey()));
+        }
+
+        out.append("# TYPE fakeplayers_time_to_post_seconds histogram\n");
+        timeToPost.appendPrometheus(out, "fakeplayers_time_to_post_seconds", "");
+
+        out.append("# TYPE fakeplayers_whisper_reply_seconds histogram\n");
+        whisperReply.appendPrometheus(out, "fakeplayers_whisper_reply_seconds", "");
+        out.append("# TYPE fakeplayers_whisper_unanswered_total counter\n");
+        out.append("fakeplayers_whisper_unanswered_total ").append(whisperUnanswered.sum()).append('\n');
+        out.append("# TYPE fakeplayers_whisper_slo_breaches_total counter\n");
+        out.append("fakeplayers_whisper_slo_breaches_total ").append(whisperSlow.sum() + whisperUnanswered.sum()).append('\n');
+        out.append("# TYPE fakeplayers_whisper_slo_seconds gauge\n");
+        out.append("fakeplayers_whisper_slo_seconds ").append(whisperSloMs / 1000.0).append('\n');
+
+        out.append("# TYPE fakeplayers_admissions_total counter\n");
+        for (Map.Entry<String, Map<String, LongAdder>> admission : admissions.entrySet()) {
+            for (Map.Entry<String, LongAdder> outcome : admission.getValue().entrySet()) {
+                out.append("fakeplayers_admissions_total{").append(label("admission", admission.getKey()))
+                        .append(',').append(label("outcome", outcome.getKey())).append("} ")
+                        .append(outcome.getValue().sum()).append('\n');
+            }
+        }
+
+        out.append("# TYPE fakeplayers_generation_queue_depth gauge\n");
+        out.append("fakeplayers_generation_queue_depth ").append(generationQueueDepth).append('\n');
+        out.append("# TYPE fakeplayers_generation_wait_seconds histogram\n");
+        for (Map.Entry<String, Histogram> entry : generationWaits.entrySet()) {
+            entry.getValue().appendPrometheus(out, "fakeplayers_generation_wait_seconds", label("priority", entry.getKey()));
+        }
+        out.append("# TYPE fakeplayers_generation_dropped_total counter\n");
+        for (Map.Entry<String, Map<String, LongAdder>> priority : generationDrops.entrySet()) {
+            for (Map.Entry<String, LongAdder> drop : priority.getValue().entrySet()) {
+                out.append("fakeplayers_generation_dropped_total{").append(label("priority", priority.getKey()))
+                        .append(',').append(label("reason", drop.getKey())).append("} ")
+                        .append(drop.getValue().sum()).append('\n');
+            }
+        }
+
+        out.append("# TYPE fakeplayers_tablist_packets_total counter\n");
+        for (Map.Entry<String, PacketStats> entry : packets.entrySet()) {
+            out.append("fakeplayers_tablist_packets_total{").append(label("kind", entry.getKey())).append("} ")
+                    .append(entry.getValue().packets.sum()).append('\n');
+        }
+        out.append("# TYPE fakeplayers_tablist_bytes_total counter\n");
+        for (Map.Entry<String, PacketStats> entry : packets.entrySet()) {
+            out.append("fakeplayers_tablist_bytes_total{").append(label("kind", entry.getKey())).append("} ")
+                    .append(entry.getValue().bytes.sum()).append('\n');
+        }
+
+        out.append("# TYPE fakeplayers_pings_total counter\n");
+        out.append("fakeplayers_pings_total ").append(pings.sum()).append('\n');
+        out.append("# TYPE fakeplayers_flood_pings_total counter\n");
+        out.append("fakeplayers_flood_pings_total ").append(floodPings.sum()).append('\n');
+        out.append("# TYPE fakeplayers_ping_sources gauge\n");
+        out.append("fakeplayers_ping_sources ").append(pingSources).append('\n');
+        out.append("# TYPE fakeplayers_busiest_ping_source_pings gauge\n");
+        out.append("fakeplayers_busiest_ping_source_pings ").append(busiestPingSourceCount).append('\n');
+
+        out.append("# TYPE fakeplayers_handler_seconds histogram\n");
+        for (Map.Entry<String, Histogram> entry : handlers.entrySet()) {
+            entry.getValue().appendPrometheus(out, "fakeplayers_handler_seconds", label("handler", entry.getKey()));
+        }
+        return out.toString();
+    }
+
+    private void forEachModel(StringBuilder out, String name, java.util.function.ToLongFunction<ModelStats> value) {
+        for (Map.Entry<String, ModelStats> entry : models.entrySet()) {
+            out.append(name).append('{').append(label("model", entry.getKey())).append("} ")
+                    .append(value.applyAsLong(entry.getValue())).append('\n');
+        }
+    }
+
+    private static String label(String name, String value) {
+        return name + "=\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    // Writes the Prometheus text file atomically so a scraper never reads half a file.
+    public void writePrometheus(Path file) throws IOException {
+        Files.createDirectories(file.getParent());
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.writeString(temp, renderPrometheus(), StandardCharsets.UTF_8);
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
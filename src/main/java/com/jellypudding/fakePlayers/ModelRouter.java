@@ -0,0 +1,265 @@
+package com.jellypudding.fakePlayers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.logging.Logger;
+
+// Picks a model for each request from a player's model pool and keeps a circuit breaker per model.
+// A model's breaker opens after repeated failures, stays open for an exponentially growing
+// back-off, then lets a single probe request through (half-open) to decide whether to close
+// again. The pool's first model (the player's own) is used while its breaker is closed and it
+// isn't clearly degraded; only then does the request go to the closed fallback with the lowest
+// error-weighted EWMA latency, so a faster paid fallback never quietly replaces a free primary.
+// A degraded primary still gets one request per recheck interval, since its EWMAs only move
+// when it answers.
+// Breaker state is saved to disk so a restart doesn't forget about a broken model.
+public class ModelRouter {
+
+    enum State { CLOSED, OPEN, HALF_OPEN }
+
+    // A model picked by select(). probe is true only for the one half-open probe request, which
+    // must be reported through recordAbandoned() if it ends without an outcome.
+    public static final class Selection {
+        public final String model;
+        public final boolean probe;
+
+        Selection(String model, boolean probe) {
+            this.model = model;
+            this.probe = probe;
+        }
+    }
+
+    private static final class ModelHealth {
+        State state = State.CLOSED;
+        // -1 until the first successful response.
+        double ewmaLatencyMs = -1;
+        double ewmaErrorRate = 0;
+        int consecutiveFailures = 0;
+        // How many times in a row the breaker has opened; drives the back-off.
+        int trips = 0;
+        long openUntil = 0;
+        boolean probeInFlight = false;
+        // When a degraded but closed primary next gets a request. Not saved, so a restart
+        // rechecks straight away.
+        long nextRecheck = 0;
+    }
+
+    private static final int MAX_CONSECUTIVE_FAILURES = 4;
+    private static final long BASE_BACKOFF_MS = 30 * 1000L;
+    // Same ceiling as the old fixed disable period (24 hours).
+    private static final long MAX_BACKOFF_MS = 24 * 60 * 60 * 1000L;
+    private static final double LATENCY_ALPHA = 0.3;
+    private static final double ERROR_ALPHA = 0.2;
+    // The primary counts as degraded above this EWMA error rate, or when it is this many times
+    // slower than the fastest measured fallback.
+    private static final double PRIMARY_MAX_ERROR_RATE = 0.3;
+    private static final double PRIMARY_MAX_SLOWDOWN = 3.0;
+    private static final long RECHECK_INTERVAL_MS = 60 * 1000L;
+
+    private final Logger logger;
+    private final Path stateFile;
+    private final Map<String, ModelHealth> health = new HashMap<>();
+
+    public ModelRouter(Logger logger, Path stateFile) {
+        this.logger = logger;
+        this.stateFile = stateFile;
+        load();
+    }
+
+    // Returns the model to use from the pool (preferred model first), or null if every
+    // model's breaker is open.
+    public synchronized Selection select(List<String> pool) {
+        long now = System.currentTimeMillis();
+        String primary = pool.get(0);
+
+        // Give a recovering primary its probe first so it can take over again.
+        if (startProbe(primary, now)) {
+            return new Selection(primary, true);
+        }
+        String fastest = fastestFallback(pool);
+        ModelHealth primaryHealth = healthOf(primary);
+        if (primaryHealth.state == State.CLOSED) {
+            if (!isDegraded(primaryHealth, fastest)) {
+                return new Selection(primary, false);
+            }
+            if (now >= primaryHealth.nextRecheck) {
+                primaryHealth.nextRecheck = now + RECHECK_INTERVAL_MS;
+                return new Selection(primary, false);
+            }
+        }
+
+        // The primary is out, so recovering fallbacks are worth probing.
+        for (int i = 1; i < pool.size(); i++) {
+            if (startProbe(pool.get(i), now)) {
+                return new Selection(pool.get(i), true);
+            }
+        }
+        if (fastest != null) {
+            return new Selection(fastest, false);
+        }
+        // A degraded primary still beats having no model.
+        return healthOf(primary).state == State.CLOSED ? new Selection(primary, false) : null;
+    }
+
+    private boolean startProbe(String model, long now) {
+        ModelHealth h = healthOf(model);
+        if (h.state == State.OPEN && now >= h.openUntil) {
+            h.state = State.HALF_OPEN;
+        }
+        if (h.state != State.HALF_OPEN || h.probeInFlight) {
+            return false;
+        }
+        h.probeInFlight = true;
+        logger.info("ChatAI: Probing model '" + model + "' after back-off.");
+        return true;
+    }
+
+    // The closed fallback with the lowest error-weighted latency, or null. Fallbacks without a
+    // latency sample rank after measured ones, in pool order.
+    private String fastestFallback(List<String> pool) {
+        String best = null;
+        double bestScore = Double.MAX_VALUE;
+        for (int i = 1; i < pool.size(); i++) {
+            String model = pool.get(i);
+            ModelHealth h = healthOf(model);
+            if (h.state != State.CLOSED) {
+                continue;
+            }
+            double score = h.ewmaLatencyMs < 0 ? Double.MAX_VALUE / 2 : score(h);
+            if (best == null || score < bestScore) {
+                best = model;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    private boolean isDegraded(ModelHealth primary, String fastestFallback) {
+        if (primary.ewmaErrorRate > PRIMARY_MAX_ERROR_RATE) {
+            return true;
+        }
+        if (fastestFallback == null || primary.ewmaLatencyMs < 0) {
+            return false;
+        }
+        ModelHealth fallback = healthOf(fastestFallback);
+        return fallback.ewmaLatencyMs >= 0 && score(primary) > PRIMARY_MAX_SLOWDOWN * score(fallback);
+    }
+
+    private static double score(ModelHealth h) {
+        return h.ewmaLatencyMs * (1 + 2 * h.ewmaErrorRate);
+    }
+
+    public synchronized void recordSuccess(String model, long latencyNanos) {
+        ModelHealth h = healthOf(model);
+        double latencyMs = latencyNanos / 1_000_000.0;
+        h.ewmaLatencyMs = h.ewmaLatencyMs < 0 ? latencyMs : h.ewmaLatencyMs + LATENCY_ALPHA * (latencyMs - h.ewmaLatencyMs);
+        h.ewmaErrorRate *= 1 - ERROR_ALPHA;
+        h.consecutiveFailures = 0;
+        if (h.state != State.CLOSED) {
+            logger.info("ChatAI: Model '" + model + "' recovered, closing its breaker.");
+        }
+        h.state = State.CLOSED;
+        h.trips = 0;
+        h.probeInFlight = false;
+    }
+
+    public synchronized void recordFailure(String model) {
+        ModelHealth h = healthOf(model);
+        h.ewmaErrorRate = h.ewmaErrorRate * (1 - ERROR_ALPHA) + ERROR_ALPHA;
+        h.consecutiveFailures++;
+        if (h.state == State.HALF_OPEN || h.consecutiveFailures >= MAX_CONSECUTIVE_FAILURES) {
+            long backoff = Math.min(MAX_BACKOFF_MS, BASE_BACKOFF_MS << Math.min(h.trips, 30));
+            h.state = State.OPEN;
+            h.openUntil = System.currentTimeMillis() + backoff;
+            h.trips++;
+            h.consecutiveFailures = 0;
+            h.probeInFlight = false;
+            logger.warning("Model '" + model + "' disabled until " + new Date(h.openUntil)
+                    + " after repeated failures (back-off " + backoff / 1000 + "s).");
+        }
+    }
+
+    // The probe request was cancelled or skipped before an outcome was known. Only call this for
+    // a Selection with probe set; other requests must not free the probe slot.
+    public synchronized void recordAbandoned(String model) {
+        ModelHealth h = healthOf(model);
+        if (h.state == State.HALF_OPEN) {
+            h.probeInFlight = false;
+        }
+    }
+
+    // One line per known model for diagnostics.
+    public synchronized List<String> describe() {
+        List<String> lines = new ArrayList<>();
+        for (Map.Entry<String, ModelHealth> entry : new TreeMap<>(health).entrySet()) {
+            ModelHealth h = entry.getValue();
+            lines.add(String.format("%s: %s, latency %s, error rate %.0f%%",
+                    entry.getKey(), h.state,
+                    h.ewmaLatencyMs < 0 ? "n/a" : Math.round(h.ewmaLatencyMs) + "ms",
+                    h.ewmaErrorRate * 100));
+        }
+        return lines;
+    }
+
+    private ModelHealth healthOf(String model) {
+        return health.computeIfAbsent(model, m -> new ModelHealth());
+    }
+
+    public synchronized void save() {
+        Properties properties = new Properties();
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, ModelHealth> entry : health.entrySet()) {
+            ModelHealth h = entry.getValue();
+            // A probe that was still running is retried straight after a restart.
+            State state = h.state == State.HALF_OPEN ? State.OPEN : h.state;
+            long openUntil = h.state == State.HALF_OPEN ? now : h.openUntil;
+            properties.setProperty(entry.getKey(), state + "," + openUntil + "," + h.trips + ","
+                    + h.ewmaLatencyMs + "," + h.ewmaErrorRate);
+        }
+        try {
+            Files.createDirectories(stateFile.getParent());
+            Path temp = stateFile.resolveSibling(stateFile.getFileName() + ".tmp");
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                properties.store(out, "FakePlayers model health");
+            }
+            Files.move(temp, stateFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warning("Could not save model health: " + e.getMessage());
+        }
+    }
+
+    private void load() {
+        if (!Files.exists(stateFile)) {
+            return;
+        }
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(stateFile)) {
+            properties.load(in);
+        } catch (IOException e) {
+            logger.warning("Could not load model health: " + e.getMessage());
+            return;
+        }
+        for (String model : properties.stringPropertyNames()) {
+            String[] parts = properties.getProperty(model).split(",");
+            if (parts.length != 5) {
+                continue;
+            }
+            try {
+                ModelHealth h = new ModelHealth();
+                h.state = State.valueOf(parts[0]);
+                h.openUntil = Long.parseLong(parts[1]);
+                h.trips = Integer.parseInt(parts[2]);
+                h.ewmaLatencyMs = Double.parseDouble(parts[3]);
+                h.ewmaErrorRate = Double.parseDouble(parts[4]);
+                health.put(model, h);
+            } catch (IllegalArgumentException e) {
+                logger.warning("Ignoring bad model health entry for '" + model + "'");
+            }
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.jellypudding.fakePlayers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Case-insensitive index of player names, kept up to date as players come and go.
+// - complete(): prefix completion from a case-folded trie, already in alphabetical order.
+// - lookup(): exact case-insensitive lookup returning the real casing.
+// - findMention(): first name mentioned anywhere in a chat message, in one pass over the text.
+// add/remove/complete must be called from the main thread; lookup and findMention are safe
+// from any thread.
+public class NameIndex {
+
+    private static final class Node {
+        final TreeMap<Character, Node> children = new TreeMap<>();
+        // Names ending at this node (names can differ only in case).
+        final List<String> names = new ArrayList<>(1);
+    }
+
+    private final Node root = new Node();
+    private final Map<String, String> byFoldedName = new ConcurrentHashMap<>();
+    private final boolean trackMentions;
+    private volatile PhraseMatcher mentionMatcher = new PhraseMatcher(List.of());
+    // Set by add/remove/clear. The matcher is rebuilt on the next findMention, so a burst of
+    // joins and quits costs one rebuild rather than one per name.
+    private volatile boolean mentionsDirty = false;
+
+    // trackMentions enables findMention.
+    public NameIndex(boolean trackMentions) {
+        this.trackMentions = trackMentions;
+    }
+
+    public void add(String name) {
+        String folded = fold(name);
+        if (byFoldedName.containsKey(folded)) {
+            return;
+        }
+        Node node = root;
+        for (int i = 0; i < folded.length(); i++) {
+            node = node.children.computeIfAbsent(folded.charAt(i), c -> new Node());
+        }
+        node.names.add(name);
+        byFoldedName.put(folded, name);
+        mentionsDirty = trackMentions;
+    }
+
+    public void remove(String name) {
+        String folded = fold(name);
+        if (byFoldedName.remove(folded) == null) {
+            return;
+        }
+        removeFrom(root, folded, 0, name);
+        mentionsDirty = trackMentions;
+    }
+
+    // Returns true if the node became empty and can be pruned by its parent.
+    private boolean removeFrom(Node node, String folded, int depth, String name) {
+        if (depth == folded.length()) {
+            node.names.removeIf(existing -> existing.equalsIgnoreCase(name));
+        } else {
+            Character key = folded.charAt(depth);
+            Node child = node.children.get(key);
+            if (child != null && removeFrom(child, folded, depth + 1, name)) {
+                node.children.remove(key);
+            }
+        }
+        return node.names.isEmpty() && node.children.isEmpty();
+    }
+
+    public void clear() {
+        root.children.clear();
+        root.names.clear();
+        byFoldedName.clear();
+        mentionsDirty = trackMentions;
+    }
+
+    // Returns the correctly cased name, or null if it isn't indexed.
+    public String lookup(String name) {
+        return byFoldedName.get(fold(name));
+    }
+
+    // All names starting with prefix (ignoring case), sorted case-insensitively.
+    public List<String> complete(String prefix) {
+        Node node = root;
+        String folded = fold(prefix);
+        for (int i = 0; i < folded.length() && node != null; i++) {
+            node = node.children.get(folded.charAt(i));
+        }
+        List<String> results = new ArrayList<>();
+        if (node != null) {
+            collect(node, results);
+        }
+        return results;
+    }
+
+    private void collect(Node node, List<String> results) {
+        results.addAll(node.names);
+        for (Node child : node.children.values()) {
+            collect(child, results);
+        }
+    }
+
+    // Returns the indexed name whose mention ends earliest in the text, or null.
+    public String findMention(CharSequence text) {
+        if (mentionsDirty) {
+            rebuildMentions();
+        }
+        return mentionMatcher.findFirst(text);
+    }
+
+    private synchronized void rebuildMentions() {
+        if (!mentionsDirty) {
+            return;
+        }
+        // Cleared before the snapshot, so a name added meanwhile marks it dirty again.
+        mentionsDirty = false;
+        mentionMatcher = new PhraseMatcher(new ArrayList<>(byFoldedName.values()));
+    }
+
+    private static String fold(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,82 @@
+package com.jellypudding.fakePlayers;
+
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+
+// Pre-generated off-topic lines keyed by personality. Off-topic prompts don't use chat context,
+// so these can be generated while chat is idle and posted later without waiting on the API.
+public class OffTopicPool {
+
+    private static final class PooledLine {
+        final String text;
+        final long createdAt;
+
+        PooledLine(String text) {
+            this.text = text;
+            this.createdAt = System.currentTimeMillis();
+        }
+    }
+
+    private final int maxSize;
+    private final long maxAgeMs;
+    private final Map<String, Deque<PooledLine>> pools = new ConcurrentHashMap<>();
+
+    public OffTopicPool(int maxSize, long maxAgeMs) {
+        this.maxSize = Math.max(0, maxSize);
+        this.maxAgeMs = maxAgeMs;
+    }
+
+    public boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+    // Returns the oldest fresh line for this personality, or null if none is ready.
+    public String poll(String personality) {
+        Deque<PooledLine> pool = pools.get(personality);
+        if (pool == null) {
+            return null;
+        }
+        long cutoff = System.currentTimeMillis() - maxAgeMs;
+        PooledLine line;
+        while ((line = pool.pollFirst()) != null) {
+            if (line.createdAt >= cutoff) {
+                return line.text;
+            }
+        }
+        return null;
+    }
+
+    public void offer(String personality, String text) {
+        if (!isEnabled()) {
+            return;
+        }
+        Deque<PooledLine> pool = pools.computeIfAbsent(personality, key -> new ConcurrentLinkedDeque<>());
+        pool.addLast(new PooledLine(text));
+        // Drop the oldest lines if concurrent refills overshot the limit.
+        while (pool.size() > maxSize) {
+            pool.pollFirst();
+        }
+    }
+
+    // How many more lines this personality's pool can take, after discarding stale ones.
+    public int missing(String personality) {
+        if (!isEnabled()) {
+            return 0;
+        }
+        Deque<PooledLine> pool = pools.get(personality);
+        if (pool == null) {
+            return maxSize;
+        }
+        long cutoff = System.currentTimeMillis() - maxAgeMs;
+        Iterator<PooledLine> iterator = pool.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().createdAt < cutoff) {
+                iterator.remove();
+            }
+        }
+        return Math.max(0, maxSize - pool.size());
+    }
+}
@@ -0,0 +1,161 @@
+package com.jellypudding.fakePlayers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Aho-Corasick automaton that finds any of a fixed set of phrases in one pass over the text,
+// ignoring case. The automaton is immutable once built, so it can be shared across threads.
+public final class PhraseMatcher {
+
+    private final String[] phrases;
+    // Maps a case-folded ASCII char to its symbol. Symbol 0 is any char no phrase uses.
+    private final int[] symbolOf = new int[128];
+    // Case-folded non-ASCII chars used by the phrases, sorted, and their symbols.
+    private final char[] wideChars;
+    private final int[] wideSymbolOf;
+    private final int alphabetSize;
+    // Full transition table: transitions[state * alphabetSize + symbol].
+    private final int[] transitions;
+    // Index of a phrase that ends when this state is reached, or -1.
+    private final int[] matchOf;
+
+    public PhraseMatcher(Collection<String> phraseList) {
+        List<String> accepted = new ArrayList<>(phraseList.size());
+        for (String phrase : phraseList) {
+            if (phrase != null && !phrase.isEmpty()) {
+                accepted.add(phrase);
+            }
+        }
+        phrases = accepted.toArray(new String[0]);
+
+        int symbols = 1;
+        int maxStates = 1;
+        TreeMap<Character, Integer> wide = new TreeMap<>();
+        for (String phrase : phrases) {
+            maxStates += phrase.length();
+            for (int i = 0; i < phrase.length(); i++) {
+                char folded = fold(phrase.charAt(i));
+                if (folded >= 128) {
+                    if (!wide.containsKey(folded)) {
+                        wide.put(folded, symbols++);
+                    }
+                } else if (symbolOf[folded] == 0) {
+                    symbolOf[folded] = symbols++;
+                }
+            }
+        }
+        alphabetSize = symbols;
+        wideChars = new char[wide.size()];
+        wideSymbolOf = new int[wide.size()];
+        int w = 0;
+        for (Map.Entry<Character, Integer> entry : wide.entrySet()) {
+            wideChars[w] = entry.getKey();
+            wideSymbolOf[w++] = entry.getValue();
+        }
+
+        // Build the trie. Edge target 0 means "no edge" here since the root is never a child.
+        int[] table = new int[maxStates * alphabetSize];
+        int[] match = new int[maxStates];
+        Arrays.fill(match, -1);
+        int states = 1;
+        for (int p = 0; p < phrases.length; p++) {
+            String phrase = phrases[p];
+            int state = 0;
+            for (int i = 0; i < phrase.length(); i++) {
+                int slot = state * alphabetSize + symbol(phrase.charAt(i));
+                if (table[slot] == 0) {
+                    table[slot] = states++;
+                }
+                state = table[slot];
+            }
+            if (match[state] < 0) {
+                match[state] = p;
+            }
+        }
+
+        // Breadth-first pass turning the trie into a DFA via failure links.
+        int[] fail = new int[states];
+        int[] queue = new int[states];
+        int head = 0;
+        int tail = 0;
+        for (int symbol = 1; symbol < alphabetSize; symbol++) {
+            int child = table[symbol];
+            if (child != 0) {
+                fail[child] = 0;
+                queue[tail++] = child;
+            }
+        }
+        while (head < tail) {
+            int state = queue[head++];
+            for (int symbol = 1; symbol < alphabetSize; symbol++) {
+                int slot = state * alphabetSize + symbol;
+                int child = table[slot];
+                int fallback = table[fail[state] * alphabetSize + symbol];
+                if (child != 0) {
+                    fail[child] = fallback;
+                    if (match[child] < 0) {
+                        match[child] = match[fallback];
+                    }
+                    queue[tail++] = child;
+                } else {
+                    table[slot] = fallback;
+                }
+            }
+        }
+
+        transitions = Arrays.copyOf(table, states * alphabetSize);
+        matchOf = Arrays.copyOf(match, states);
+    }
+
+    public boolean isEmpty() {
+        return phrases.length == 0;
+    }
+
+    public boolean containsAny(CharSequence text) {
+        return firstMatch(text) >= 0;
+    }
+
+    // Returns the phrase whose occurrence ends earliest in the text, or null.
+    public String findFirst(CharSequence text) {
+        int index = firstMatch(text);
+        return index >= 0 ? phrases[index] : null;
+    }
+
+    // Returns the index (in the accepted phrase order) of the earliest-ending match, or -1.
+    public int firstMatch(CharSequence text) {
+        if (phrases.length == 0) {
+            return -1;
+        }
+        int state = 0;
+        for (int i = 0, length = text.length(); i < length; i++) {
+            state = transitions[state * alphabetSize + symbol(text.charAt(i))];
+            if (matchOf[state] >= 0) {
+                return matchOf[state];
+            }
+        }
+        return -1;
+    }
+
+    private int symbol(char c) {
+        char folded = fold(c);
+        if (folded < 128) {
+            return symbolOf[folded];
+        }
+        if (wideChars.length == 0) {
+            return 0;
+        }
+        int index = Arrays.binarySearch(wideChars, folded);
+        return index >= 0 ? wideSymbolOf[index] : 0;
+    }
+
+    private static char fold(char c) {
+        if (c < 128) {
+            return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+        }
+        return Character.toLowerCase(c);
+    }
+}
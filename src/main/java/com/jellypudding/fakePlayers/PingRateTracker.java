@@ -0,0 +1,66 @@
+package com.jellypudding.fakePlayers;
+
+import java.net.InetAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+// Counts server list pings per source address in one-minute windows so scanner floods show up
+// in metrics. Only the current window is kept, so memory is bounded by the distinct addresses
+// seen in a minute. Safe to call from the network threads that fire ping events.
+public class PingRateTracker {
+
+    private static final long WINDOW_MS = 60 * 1000L;
+
+    private final Metrics metrics;
+    private final Logger logger;
+    // Pings per minute above which an address counts as flooding.
+    private final int floodThreshold;
+    private volatile Map<InetAddress, LongAdder> window = new ConcurrentHashMap<>();
+    private volatile long windowStart = System.currentTimeMillis();
+
+    public PingRateTracker(Metrics metrics, Logger logger, int floodThreshold) {
+        this.metrics = metrics;
+        this.logger = logger;
+        this.floodThreshold = Math.max(1, floodThreshold);
+    }
+
+    public void record(InetAddress address) {
+        if (System.currentTimeMillis() - windowStart >= WINDOW_MS) {
+            rollWindow();
+        }
+        LongAdder counter = window.computeIfAbsent(address, a -> new LongAdder());
+        counter.increment();
+        long count = counter.sum();
+        if (count > floodThreshold) {
+            metrics.recordFloodPing();
+            if (count == floodThreshold + 1) {
+                logger.info("Server list ping flood from " + address.getHostAddress()
+                        + " (more than " + floodThreshold + " pings this minute)");
+            }
+        }
+    }
+
+    // Publishes the finished window's source count and busiest address, then starts a new one.
+    private synchronized void rollWindow() {
+        long now = System.currentTimeMillis();
+        if (now - windowStart < WINDOW_MS) {
+            return;
+        }
+        Map<InetAddress, LongAdder> finished = window;
+        window = new ConcurrentHashMap<>();
+        windowStart = now;
+
+        InetAddress busiest = null;
+        long busiestCount = 0;
+        for (Map.Entry<InetAddress, LongAdder> entry : finished.entrySet()) {
+            long count = entry.getValue().sum();
+            if (count > busiestCount) {
+                busiest = entry.getKey();
+                busiestCount = count;
+            }
+        }
+        metrics.setPingSources(finished.size(), busiest != null ? busiest.getHostAddress() : "", busiestCount);
+    }
+}
@@ -0,0 +1,36 @@
+package com.jellypudding.fakePlayers;
+
+import com.destroystokyo.paper.event.server.PaperServerListPingEvent;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Function;
+
+// Everything the server list ping response needs, built once per roster or player count change.
+// Immutable, so ping handlers on network threads can read it without locking.
+public final class PingSnapshot {
+
+    public static final PingSnapshot EMPTY = new PingSnapshot(0, List.of(), 0, 0);
+
+    public final long version;
+    public final List<PaperServerListPingEvent.ListedPlayerInfo> listedPlayers;
+    public final int numPlayers;
+    public final int maxPlayers;
+
+    private PingSnapshot(long version, List<PaperServerListPingEvent.ListedPlayerInfo> listedPlayers,
+                         int numPlayers, int maxPlayers) {
+        this.version = version;
+        this.listedPlayers = listedPlayers;
+        this.numPlayers = numPlayers;
+        this.maxPlayers = maxPlayers;
+    }
+
+    // Fakes fill the list up to maxPlayers minus the real players, as before.
+    public static PingSnapshot build(long version, Collection<String> onlineFakes,
+                                     Function<String, FakePlayers.PlayerFakeAllData> profiles,
+                                     int realCount, int maxPlayers) {
+        int allowedFake = Math.max(0, maxPlayers - realCount);
+        List<PaperServerListPingEvent.ListedPlayerInfo> listed = FakePlayers.listedPlayers(onlineFakes, profiles, allowedFake);
+        return new PingSnapshot(version, List.copyOf(listed), realCount + listed.size(), maxPlayers);
+    }
+}
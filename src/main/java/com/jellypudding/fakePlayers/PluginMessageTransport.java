@@ -0,0 +1,80 @@
+package com.jellypudding.fakePlayers;
+
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.plugin.messaging.PluginMessageListener;
+
+import java.io.*;
+import java.util.Iterator;
+import java.util.function.Consumer;
+
+// Sends roster messages to every other backend through the proxy's BungeeCord "Forward"
+// subchannel (understood by BungeeCord and Velocity). Plugin messages travel over a player's
+// connection, so a backend with nobody online can neither send nor receive; its peers then
+// treat it as gone once its heartbeats stop, and it coordinates again when someone joins.
+public class PluginMessageTransport implements RosterTransport, PluginMessageListener {
+
+    private static final String CHANNEL = "BungeeCord";
+    private static final String SUBCHANNEL = "FakePlayersRoster";
+
+    private final JavaPlugin plugin;
+    private volatile Consumer<byte[]> receiver;
+
+    public PluginMessageTransport(JavaPlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    @Override
+    public void start(Consumer<byte[]> receiver) {
+        this.receiver = receiver;
+        plugin.getServer().getMessenger().registerOutgoingPluginChannel(plugin, CHANNEL);
+        plugin.getServer().getMessenger().registerIncomingPluginChannel(plugin, CHANNEL, this);
+    }
+
+    @Override
+    public void broadcast(byte[] message) {
+        Iterator<? extends Player> players = Bukkit.getOnlinePlayers().iterator();
+        if (!players.hasNext()) {
+            return;
+        }
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(message.length + 48);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeUTF("Forward");
+            out.writeUTF("ALL");
+            out.writeUTF(SUBCHANNEL);
+            out.writeShort(message.length);
+            out.write(message);
+            players.next().sendPluginMessage(plugin, CHANNEL, bytes.toByteArray());
+        } catch (IOException e) {
+            plugin.getLogger().warning("Could not send roster message: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void onPluginMessageReceived(String channel, Player player, byte[] message) {
+        Consumer<byte[]> target = receiver;
+        if (!CHANNEL.equals(channel) || target == null) {
+            return;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(message));
+            if (!SUBCHANNEL.equals(in.readUTF())) {
+                return;
+            }
+            byte[] payload = new byte[in.readUnsignedShort()];
+            in.readFully(payload);
+            target.accept(payload);
+        } catch (IOException e) {
+            plugin.getLogger().warning("Ignoring a malformed roster message: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void stop() {
+        receiver = null;
+        plugin.getServer().getMessenger().unregisterIncomingPluginChannel(plugin);
+        plugin.getServer().getMessenger().unregisterOutgoingPluginChannel(plugin);
+    }
+}
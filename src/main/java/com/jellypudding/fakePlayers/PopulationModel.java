@@ -0,0 +1,148 @@
+package com.jellypudding.fakePlayers;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.util.Random;
+import java.util.logging.Logger;
+
+// Decides how many fakes should be online at a given time of day, based on how busy the server
+// usually is then. Real-player counts are folded into a per-hour moving average (24 values,
+// saved to a small binary file) and the target scales between minFakes at the quietest hour
+// and maxFakes at the busiest. Targets depend only on the history, the time and the seed, so
+// the same inputs always give the same answer.
+public class PopulationModel {
+
+    private static final int HOURS = 24;
+    private static final int FILE_MAGIC = 0x46504f50; // "FPOP"
+    private static final int FILE_VERSION = 1;
+    // Weight of each new sample in its hour's average.
+    private static final double ALPHA = 0.1;
+
+    private final int minFakes;
+    private final int maxFakes;
+    // Per-hour offset of up to +/- this many fakes, so days don't look identical.
+    private final int jitter;
+    private final long seed;
+    private final Path file;
+    private final Logger logger;
+    private final double[] hourlyMean = new double[HOURS];
+    private final int[] hourlySamples = new int[HOURS];
+
+    public PopulationModel(int minFakes, int maxFakes, int jitter, long seed, Path file, Logger logger) {
+        this.minFakes = Math.max(0, minFakes);
+        this.maxFakes = Math.max(this.minFakes, maxFakes);
+        this.jitter = Math.max(0, jitter);
+        this.seed = seed;
+        this.file = file;
+        this.logger = logger;
+        load();
+    }
+
+    public synchronized void record(LocalDateTime time, int realPlayers) {
+        int hour = time.getHour();
+        if (hourlySamples[hour] == 0) {
+            hourlyMean[hour] = realPlayers;
+        } else {
+            hourlyMean[hour] += ALPHA * (realPlayers - hourlyMean[hour]);
+        }
+        if (hourlySamples[hour] < Integer.MAX_VALUE) {
+            hourlySamples[hour]++;
+        }
+    }
+
+    // How busy this time of day usually is, from 0 (quietest hour) to 1 (busiest), interpolated
+    // between hours. 0.5 until there is any history.
+    public synchronized double busyness(LocalDateTime time) {
+        double fallback = 0;
+        int known = 0;
+        for (int hour = 0; hour < HOURS; hour++) {
+            if (hourlySamples[hour] > 0) {
+                fallback += hourlyMean[hour];
+                known++;
+            }
+        }
+        if (known == 0) {
+            return 0.5;
+        }
+        fallback /= known;
+
+        double low = Double.MAX_VALUE;
+        double high = 0;
+        for (int hour = 0; hour < HOURS; hour++) {
+            double mean = meanAt(hour, fallback);
+            low = Math.min(low, mean);
+            high = Math.max(high, mean);
+        }
+        if (high - low < 1e-9) {
+            return 0.5;
+        }
+
+        int hour = time.getHour();
+        double fraction = time.getMinute() / 60.0;
+        double mean = meanAt(hour, fallback) * (1 - fraction) + meanAt((hour + 1) % HOURS, fallback) * fraction;
+        return (mean - low) / (high - low);
+    }
+
+    private double meanAt(int hour, double fallback) {
+        return hourlySamples[hour] > 0 ? hourlyMean[hour] : fallback;
+    }
+
+    public int targetFakes(LocalDateTime time) {
+        int target = (int) Math.round(minFakes + (maxFakes - minFakes) * busyness(time));
+        if (jitter > 0) {
+            // Same offset for the whole hour, different from hour to hour and day to day.
+            long hourOfEpoch = time.toLocalDate().toEpochDay() * HOURS + time.getHour();
+            target += new Random(seed ^ hourOfEpoch).nextInt(-jitter, jitter + 1);
+        }
+        return Math.max(0, target);
+    }
+
+    // The join (+1), leave (-1) or nothing (0) that moves current one step towards target.
+    public static int step(int target, int current) {
+        return Integer.signum(target - current);
+    }
+
+    public synchronized void save() {
+        try {
+            Files.createDirectories(file.getParent());
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(FILE_MAGIC);
+                out.writeInt(FILE_VERSION);
+                for (int hour = 0; hour < HOURS; hour++) {
+                    out.writeDouble(hourlyMean[hour]);
+                    out.writeInt(hourlySamples[hour]);
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warning("Could not save population history: " + e.getMessage());
+        }
+    }
+
+    private void load() {
+        if (!Files.exists(file)) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION) {
+                logger.warning("Ignoring population history with an unknown format: " + file.getFileName());
+                return;
+            }
+            // Read everything first so a truncated file leaves the history empty, not half-filled.
+            double[] means = new double[HOURS];
+            int[] samples = new int[HOURS];
+            for (int hour = 0; hour < HOURS; hour++) {
+                means[hour] = in.readDouble();
+                samples[hour] = in.readInt();
+            }
+            System.arraycopy(means, 0, hourlyMean, 0, HOURS);
+            System.arraycopy(samples, 0, hourlySamples, 0, HOURS);
+        } catch (IOException e) {
+            logger.warning("Could not load population history: " + e.getMessage());
+        }
+    }
+}
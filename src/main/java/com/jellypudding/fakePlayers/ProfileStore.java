@@ -0,0 +1,347 @@
+package com.jellypudding.fakePlayers;
+
+import org.bukkit.configuration.ConfigurationSection;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+// Fake player profiles compiled from the fake-players config section into profiles-<crc>.bin: a
+// header, an index of names with record offsets, then one record per profile. The file is
+// memory-mapped, so only the index stays on the heap and the ~1.5 KB of texture and signature
+// per profile is decoded when it is needed. Online profiles are pinned; a few recently used
+// offline ones are kept in a small LRU. Lookups are safe from any thread.
+// Each distinct set of profiles gets its own file named after its checksum, because a mapped
+// file can't be replaced or unmapped on Windows; files that are no longer used are deleted
+// once nothing maps them, at the latest on the next start.
+public class ProfileStore {
+
+    private static final int FILE_MAGIC = 0x46505246; // "FPRF"
+    private static final int FILE_VERSION = 1;
+    // Magic, version, checksum and profile count.
+    private static final int HEADER_SIZE = 20;
+    // Stored instead of a fallback count when the profile uses the global fallback-models.
+    private static final int GLOBAL_FALLBACKS = -1;
+
+    // Null for an empty store.
+    private final Path file;
+    private final ByteBuffer data;
+    private final List<String> names;
+    private final Map<String, Integer> index;
+    private final int[] offsets;
+    private final int[] lengths;
+    private final List<String> fallbackModels;
+    private final Map<String, FakePlayers.PlayerFakeAllData> pinned = new ConcurrentHashMap<>();
+    private final Map<String, FakePlayers.PlayerFakeAllData> recent;
+    private final LongAdder decodes = new LongAdder();
+
+    private ProfileStore(Path file, ByteBuffer data, List<String> names, int[] offsets, int[] lengths,
+                         List<String> fallbackModels, int cacheSize) {
+        this.file = file;
+        this.data = data;
+        this.names = names;
+        this.offsets = offsets;
+        this.lengths = lengths;
+        this.fallbackModels = fallbackModels;
+        this.index = new HashMap<>(names.size() * 2);
+        for (int i = 0; i < names.size(); i++) {
+            index.put(names.get(i), i);
+        }
+        int capacity = Math.max(0, cacheSize);
+        this.recent = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, FakePlayers.PlayerFakeAllData> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    public static ProfileStore empty(List<String> fallbackModels) {
+        return new ProfileStore(null, ByteBuffer.allocate(0), List.of(), new int[0], new int[0], fallbackModels, 0);
+    }
+
+    // Maps the file read-only and reads its index. Records are only touched by get() and pin().
+    public static ProfileStore open(Path file, List<String> fallbackModels, int cacheSize) throws IOException {
+        ByteBuffer data;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (data.capacity() < HEADER_SIZE || data.getInt(0) != FILE_MAGIC || data.getInt(4) != FILE_VERSION) {
+            throw new IOException("unknown format in " + file.getFileName());
+        }
+        int count = data.getInt(16);
+        // Every index entry takes at least 12 bytes.
+        if (count < 0 || count > (data.capacity() - HEADER_SIZE) / 12) {
+            throw new IOException("bad profile count in " + file.getFileName());
+        }
+        ByteBuffer in = data.duplicate().position(HEADER_SIZE);
+        String[] names = new String[count];
+        int[] offsets = new int[count];
+        int[] lengths = new int[count];
+        try {
+            for (int i = 0; i < count; i++) {
+                names[i] = readString(in);
+                offsets[i] = in.getInt();
+                lengths[i] = in.getInt();
+                if (offsets[i] < in.position() || lengths[i] < 0 || (long) offsets[i] + lengths[i] > data.capacity()) {
+                    throw new IOException("bad record bounds for " + names[i] + " in " + file.getFileName());
+                }
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IOException("truncated index in " + file.getFileName());
+        }
+        return new ProfileStore(file, data, List.of(names), offsets, lengths, fallbackModels, cacheSize);
+    }
+
+    // The most recently compiled profile file in directory, or null if there is none.
+    public static Path latest(Path directory) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return null;
+        }
+        Path latest = null;
+        FileTime latestTime = null;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "profiles-*.bin")) {
+            for (Path file : files) {
+                FileTime time = Files.getLastModifiedTime(file);
+                if (latestTime == null || time.compareTo(latestTime) > 0) {
+                    latest = file;
+                    latestTime = time;
+                }
+            }
+        }
+        return latest;
+    }
+
+    // Deletes every profile file in directory except keep. Files that are still mapped can't be
+    // deleted on Windows; they are left for the next call. Returns how many were deleted.
+    public static int deleteUnused(Path directory, Path keep) {
+        int deleted = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "profiles-*.bin")) {
+            for (Path file : files) {
+                if (file.equals(keep)) {
+                    continue;
+                }
+                try {
+                    Files.delete(file);
+                    deleted++;
+                } catch (IOException e) {
+                    // Still mapped by a store that hasn't been collected yet.
+                }
+            }
+        } catch (IOException e) {
+            // The directory is gone; there is nothing to clean up.
+        }
+        return deleted;
+    }
+
+    // Writes the section's profiles to profiles-<crc>.bin in directory and returns that file. If
+    // it already holds exactly these profiles it is reused, so an unchanged config never writes
+    // to a file that may be mapped. Profiles without a texture or signature are skipped, as before.
+    public static Path compile(ConfigurationSection section, Path directory) throws IOException {
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        DataOutputStream recordOut = new DataOutputStream(records);
+        List<String> names = new ArrayList<>();
+        List<int[]> spans = new ArrayList<>();
+        for (String name : section.getKeys(false)) {
+            String texture = section.getString(name + ".texture");
+            String signature = section.getString(name + ".signature");
+            if (texture == null || signature == null) {
+                continue;
+            }
+            int start = recordOut.size();
+            writeString(recordOut, section.getString(name + ".personality", "cynical"));
+            writeString(recordOut, section.getString(name + ".text-style", "perfect"));
+            writeString(recordOut, section.getString(name + ".model", "deepseek/deepseek-r1-distill-llama-70b:free"));
+            if (section.isList(name + ".fallback-models")) {
+                List<String> fallbacks = section.getStringList(name + ".fallback-models");
+                recordOut.writeInt(fallbacks.size());
+                for (String fallback : fallbacks) {
+                    writeString(recordOut, fallback);
+                }
+            } else {
+                recordOut.writeInt(GLOBAL_FALLBACKS);
+            }
+            writeString(recordOut, texture);
+            writeString(recordOut, signature);
+            names.add(name);
+            spans.add(new int[] {start, recordOut.size() - start});
+        }
+
+        // Offsets are absolute, so the index size has to be known before it is written.
+        int indexSize = 0;
+        for (String name : names) {
+            indexSize += 4 + name.getBytes(StandardCharsets.UTF_8).length + 8;
+        }
+        ByteArrayOutputStream body = new ByteArrayOutputStream(indexSize + records.size());
+        DataOutputStream bodyOut = new DataOutputStream(body);
+        for (int i = 0; i < names.size(); i++) {
+            writeString(bodyOut, names.get(i));
+            bodyOut.writeInt(HEADER_SIZE + indexSize + spans.get(i)[0]);
+            bodyOut.writeInt(spans.get(i)[1]);
+        }
+        records.writeTo(bodyOut);
+        byte[] bodyBytes = body.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(bodyBytes);
+        long checksum = crc.getValue();
+        Path file = directory.resolve(String.format("profiles-%08x.bin", checksum));
+
+        if (Files.exists(file)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+                if (in.readInt() == FILE_MAGIC && in.readInt() == FILE_VERSION
+                        && in.readLong() == checksum && in.readInt() == names.size()
+                        && Files.size(file) == HEADER_SIZE + bodyBytes.length) {
+                    // Marks it as the latest again, e.g. after a config change was reverted.
+                    Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+                    return file;
+                }
+            } catch (EOFException e) {
+                // Truncated; rewrite it below.
+            }
+        }
+
+        Files.createDirectories(directory);
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(FILE_VERSION);
+            out.writeLong(checksum);
+            out.writeInt(names.size());
+            out.write(bodyBytes);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return file;
+    }
+
+    // The mapped file, or null for an empty store.
+    public Path file() {
+        return file;
+    }
+
+    // Every profile name, in file order.
+    public List<String> names() {
+        return names;
+    }
+
+    public int size() {
+        return names.size();
+    }
+
+    public boolean contains(String name) {
+        return index.containsKey(name);
+    }
+
+    // Null if the name is unknown. Decodes the record unless it is pinned or recently used.
+    public FakePlayers.PlayerFakeAllData get(String name) {
+        FakePlayers.PlayerFakeAllData profile = pinned.get(name);
+        if (profile != null) {
+            return profile;
+        }
+        Integer position = index.get(name);
+        if (position == null) {
+            return null;
+        }
+        synchronized (recent) {
+            profile = recent.get(name);
+        }
+        if (profile == null) {
+            profile = decode(name, position);
+            synchronized (recent) {
+                recent.put(name, profile);
+            }
+        }
+        return profile;
+    }
+
+    // Keeps the profile decoded until unpin(); used while the fake is online.
+    public FakePlayers.PlayerFakeAllData pin(String name) {
+        FakePlayers.PlayerFakeAllData profile = get(name);
+        if (profile != null) {
+            pinned.put(name, profile);
+        }
+        return profile;
+    }
+
+    // Pins an already decoded profile, e.g. one carried over from the previous store on reload.
+    // The name doesn't have to be in this store; get() still finds it until it is unpinned.
+    public void adopt(String name, FakePlayers.PlayerFakeAllData profile) {
+        pinned.put(name, profile);
+    }
+
+    // Moves the profile back to the LRU, so a quick rejoin doesn't decode it again.
+    public void unpin(String name) {
+        FakePlayers.PlayerFakeAllData profile = pinned.remove(name);
+        if (profile != null && index.containsKey(name)) {
+            synchronized (recent) {
+                recent.put(name, profile);
+            }
+        }
+    }
+
+    // True if both stores know the name and would decode it to the same profile. Compares the
+    // raw records, so nothing is decoded.
+    public boolean sameRecord(String name, ProfileStore other) {
+        Integer position = index.get(name);
+        Integer otherPosition = other.index.get(name);
+        return position != null && otherPosition != null
+                && fallbackModels.equals(other.fallbackModels)
+                && data.slice(offsets[position], lengths[position])
+                        .equals(other.data.slice(other.offsets[otherPosition], other.lengths[otherPosition]));
+    }
+
+    public String describe() {
+        int cached;
+        synchronized (recent) {
+            cached = recent.size();
+        }
+        return String.format("Profiles: %d stored, %d pinned, %d cached, %d decodes",
+                names.size(), pinned.size(), cached, decodes.sum());
+    }
+
+    private FakePlayers.PlayerFakeAllData decode(String name, int position) {
+        decodes.increment();
+        ByteBuffer in = data.slice(offsets[position], lengths[position]);
+        String personality = readString(in);
+        String textStyle = readString(in);
+        String model = readString(in);
+        int fallbackCount = in.getInt();
+        List<String> fallbacks = fallbackModels;
+        if (fallbackCount != GLOBAL_FALLBACKS) {
+            fallbacks = new ArrayList<>(fallbackCount);
+            for (int i = 0; i < fallbackCount; i++) {
+                fallbacks.add(readString(in));
+            }
+        }
+        String texture = readString(in);
+        String signature = readString(in);
+        return new FakePlayers.PlayerFakeAllData(name, texture, signature, personality, textStyle, model, fallbacks);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0 || length > in.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,122 @@
+package com.jellypudding.fakePlayers;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Builds chat prompts without re-joining the history for every request. The context is the
+// newest chat lines that fit a token budget, kept joined and only updated when lines are added
+// or drop out of the history. Instructions that depend only on personality and text style go in
+// a system message built once per combination; since it is the same text every time, providers
+// that cache prompt prefixes can reuse it. Safe to use from any thread.
+public class PromptBuilder {
+
+    private final int contextTokens;
+    private final Map<String, String> systemPrompts = new ConcurrentHashMap<>();
+    // Lines in the current context, oldest first. Guarded by this.
+    private final ArrayDeque<FakePlayers.ChatMessage> included = new ArrayDeque<>();
+    private int includedTokens = 0;
+    private String context = "";
+
+    public PromptBuilder(int contextTokens) {
+        this.contextTokens = Math.max(1, contextTokens);
+    }
+
+    public String systemPrompt(String personality, String textStyle) {
+        return systemPrompts.computeIfAbsent(personality + '\n' + textStyle, key -> String.format(
+                "You are roleplaying as a player on a Minecraft server. Be %s. Your text style is %s. " +
+                        "Reply with one short, casual chat message that follows naturally from the recent chat. " +
+                        "Do not use any emojis or special characters. Only ever write as yourself, never as another player.",
+                personality, textStyle));
+    }
+
+    // recentMessages is an oldest-first snapshot from RecentMessageBuffer.
+    public String chatPrompt(String playerName, List<FakePlayers.ChatMessage> recentMessages) {
+        return chatPrompt(playerName, recentMessages, List.of());
+    }
+
+    // memories are lines from ConversationMemory about the player being answered.
+    public String chatPrompt(String playerName, List<FakePlayers.ChatMessage> recentMessages, List<String> memories) {
+        String joined = context(recentMessages);
+        StringBuilder prompt = new StringBuilder(joined.length() + 2 * playerName.length() + 48)
+                .append("You are ").append(playerName).append(".\n\n");
+        if (!memories.isEmpty()) {
+            prompt.append("What you remember from earlier:\n");
+            for (String memory : memories) {
+                prompt.append(memory).append('\n');
+            }
+            prompt.append('\n');
+        }
+        return prompt.append("Recent chat:\n")
+                .append(joined)
+                .append("\n\nRespond as ").append(playerName).append('.')
+                .toString();
+    }
+
+    // Private conversations are short, so they are joined fresh each time rather than cached.
+    public String whisperPrompt(String fakeName, String playerName, List<FakePlayers.ChatMessage> conversation,
+                                List<String> memories) {
+        StringBuilder prompt = new StringBuilder(256)
+                .append("You are ").append(fakeName).append(". ").append(playerName)
+                .append(" is messaging you privately; nobody else can see this conversation.\n\n");
+        if (!memories.isEmpty()) {
+            prompt.append("What you remember from earlier:\n");
+            for (String memory : memories) {
+                prompt.append(memory).append('\n');
+            }
+            prompt.append('\n');
+        }
+        prompt.append("Private conversation:\n");
+        for (FakePlayers.ChatMessage message : conversation) {
+            prompt.append(message.message).append('\n');
+        }
+        return prompt.append("\nReply to ").append(playerName).append(" as ").append(fakeName).append('.').toString();
+    }
+
+    synchronized String context(List<FakePlayers.ChatMessage> recentMessages) {
+        boolean changed = false;
+
+        // Lines that expired or were overwritten are no longer in the snapshot.
+        long oldest = recentMessages.isEmpty() ? Long.MAX_VALUE : recentMessages.get(0).sequence;
+        while (!included.isEmpty() && included.peekFirst().sequence < oldest) {
+            includedTokens -= estimateTokens(included.removeFirst().message);
+            changed = true;
+        }
+
+        long newest = included.isEmpty() ? -1 : included.peekLast().sequence;
+        int firstNew = recentMessages.size();
+        while (firstNew > 0 && recentMessages.get(firstNew - 1).sequence > newest) {
+            firstNew--;
+        }
+        for (int i = firstNew; i < recentMessages.size(); i++) {
+            FakePlayers.ChatMessage message = recentMessages.get(i);
+            included.addLast(message);
+            includedTokens += estimateTokens(message.message);
+            changed = true;
+        }
+
+        // The newest line is always kept, even if it alone is over the budget.
+        while (includedTokens > contextTokens && included.size() > 1) {
+            includedTokens -= estimateTokens(included.removeFirst().message);
+            changed = true;
+        }
+
+        if (changed) {
+            StringBuilder joined = new StringBuilder(includedTokens * 4);
+            for (FakePlayers.ChatMessage message : included) {
+                if (!joined.isEmpty()) {
+                    joined.append('\n');
+                }
+                joined.append(message.message);
+            }
+            context = joined.toString();
+        }
+        return context;
+    }
+
+    // Rough local estimate: about four characters per token, plus one for the line break.
+    static int estimateTokens(String text) {
+        return text.length() / 4 + 1;
+    }
+}
@@ -0,0 +1,60 @@
+package com.jellypudding.fakePlayers;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// Fixed-capacity ring of recent chat lines, safe to write from the main thread, async chat
+// threads and scheduler tasks while ChatAI reads from other threads. Writers claim a slot
+// from a single sequence counter; readers copy out whatever is still current and unexpired.
+public class RecentMessageBuffer {
+
+    private final int capacity;
+    private final long expirationMs;
+    private final AtomicReferenceArray<FakePlayers.ChatMessage> slots;
+    private final AtomicLong nextSequence = new AtomicLong();
+
+    public RecentMessageBuffer(int capacity, long expirationMs) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.capacity = capacity;
+        this.expirationMs = expirationMs;
+        this.slots = new AtomicReferenceArray<>(capacity);
+    }
+
+    public void add(String message) {
+        long sequence = nextSequence.getAndIncrement();
+        slots.set((int) (sequence % capacity), new FakePlayers.ChatMessage(sequence, message));
+    }
+
+    // Returns an immutable, oldest-first copy of the unexpired messages.
+    public List<FakePlayers.ChatMessage> snapshot() {
+        long end = nextSequence.get();
+        long start = Math.max(0, end - capacity);
+        long cutoff = System.currentTimeMillis() - expirationMs;
+
+        FakePlayers.ChatMessage[] messages = new FakePlayers.ChatMessage[(int) (end - start)];
+        int count = 0;
+        for (long sequence = start; sequence < end; sequence++) {
+            FakePlayers.ChatMessage message = slots.get((int) (sequence % capacity));
+            // Skip slots a writer has claimed but not filled yet, or has already lapped.
+            if (message == null || message.sequence != sequence || message.timestamp < cutoff) {
+                continue;
+            }
+            messages[count++] = message;
+        }
+        return Collections.unmodifiableList(Arrays.asList(Arrays.copyOf(messages, count)));
+    }
+
+    // Increases whenever a message is added; lets callers cheaply tell if the buffer changed.
+    public long version() {
+        return nextSequence.get();
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+}
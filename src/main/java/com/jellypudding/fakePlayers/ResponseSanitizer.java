@@ -0,0 +1,96 @@
+package com.jellypudding.fakePlayers;
+
+// Cleans raw model output into a single chat line in one pass over the characters.
+public final class ResponseSanitizer {
+
+    // Longest response that will be posted to chat.
+    public static final int MAX_LENGTH = 240;
+
+    private ResponseSanitizer() {
+    }
+
+    // Strips <tags>, "Name:" / "*Name*:" prefixes, doubled quotes, wrapping quotes, everything
+    // after the first line and non-ASCII characters.
+    public static String sanitize(String speaker, String response) {
+        int length = response.length();
+        StringBuilder out = new StringBuilder(Math.min(length, MAX_LENGTH + 16));
+        // Once a '<' has no closing '>' after it, no later '<' can start a tag either.
+        boolean tagsPossible = true;
+
+        int i = 0;
+        while (i < length) {
+            char c = response.charAt(i);
+            if (c == '<' && tagsPossible) {
+                int close = response.indexOf('>', i + 1);
+                if (close >= 0) {
+                    i = close + 1;
+                    continue;
+                }
+                tagsPossible = false;
+            }
+            if (c == '\n') {
+                break;
+            }
+            if (c == '*' || Character.toLowerCase(c) == Character.toLowerCase(firstChar(speaker))) {
+                int end = matchSpeakerPrefix(response, i, speaker);
+                if (end >= 0) {
+                    i = end;
+                    continue;
+                }
+            }
+            if (c == '"' && i + 1 < length && response.charAt(i + 1) == '"') {
+                i += 2;
+                continue;
+            }
+            if (c < 128) {
+                out.append(c);
+            }
+            i++;
+        }
+
+        // Drop one pair of wrapping quotes, then surrounding whitespace.
+        String line = out.toString().trim();
+        int start = !line.isEmpty() && isQuote(line.charAt(0)) ? 1 : 0;
+        int end = line.length() > start && isQuote(line.charAt(line.length() - 1)) ? line.length() - 1 : line.length();
+        return line.substring(start, end).trim();
+    }
+
+    public static boolean isUsable(String cleanResponse) {
+        return !cleanResponse.isEmpty() && cleanResponse.length() <= MAX_LENGTH;
+    }
+
+    // Returns the index just past "*?speaker*?:\s*" starting at from, or -1 if it doesn't match.
+    private static int matchSpeakerPrefix(String text, int from, String speaker) {
+        if (speaker.isEmpty()) {
+            return -1;
+        }
+        int i = from;
+        int length = text.length();
+        if (text.charAt(i) == '*') {
+            i++;
+        }
+        if (!text.regionMatches(true, i, speaker, 0, speaker.length())) {
+            return -1;
+        }
+        i += speaker.length();
+        if (i < length && text.charAt(i) == '*') {
+            i++;
+        }
+        if (i >= length || text.charAt(i) != ':') {
+            return -1;
+        }
+        i++;
+        while (i < length && Character.isWhitespace(text.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static char firstChar(String speaker) {
+        return speaker.isEmpty() ? '\0' : speaker.charAt(0);
+    }
+
+    private static boolean isQuote(char c) {
+        return c == '"' || c == '\'';
+    }
+}
@@ -0,0 +1,205 @@
+package com.jellypudding.fakePlayers;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+// Keeps fake players consistent across the backends of a proxy network. Nodes heartbeat over a
+// RosterTransport, and every profile is owned by the live node that scores highest for it under
+// rendezvous hashing, so all nodes agree on owners without exchanging them and only the profiles
+// of a node that comes or goes change hands. Nodes announce their fakes' joins and leaves, so
+// each one knows the network-wide set of online fakes. The live node with the lowest id leads:
+// it alone generates unprompted chat, and every posted line is fanned out to all nodes.
+public class RosterCoordinator {
+
+    private static final byte PROTOCOL = 1;
+    private static final byte HELLO = 1;
+    private static final byte JOIN = 2;
+    private static final byte LEAVE = 3;
+    private static final byte CHAT = 4;
+    // A peer that hasn't been heard from for this long is considered gone.
+    private static final long NODE_TIMEOUT_MS = 15_000;
+
+    // Called from whichever thread the transport delivers on.
+    public interface Listener {
+        // The owner of a fake that is online here announced it online too.
+        void conflict(String fake);
+
+        void chat(String speaker, String line);
+    }
+
+    private final String nodeId;
+    private final RosterTransport transport;
+    private final Logger logger;
+    // Peer node id to when it was last heard from.
+    private final Map<String, Long> peers = new ConcurrentHashMap<>();
+    // Fakes online on other nodes, to the node they are on.
+    private final Map<String, String> remoteOnline = new ConcurrentHashMap<>();
+    // Live node ids including this one, sorted.
+    private volatile List<String> liveNodes;
+    private Listener listener;
+    private Supplier<List<String>> localOnline;
+
+    public RosterCoordinator(String nodeId, RosterTransport transport, Logger logger) {
+        this.nodeId = nodeId;
+        this.transport = transport;
+        this.logger = logger;
+        this.liveNodes = List.of(nodeId);
+    }
+
+    // localOnline must be safe to call from any thread.
+    public void start(Listener listener, Supplier<List<String>> localOnline) {
+        this.listener = listener;
+        this.localOnline = localOnline;
+        transport.start(this::receive);
+        heartbeat();
+    }
+
+    public void stop() {
+        transport.stop();
+    }
+
+    // Announces this node and forgets peers that went quiet. Call every few seconds.
+    public void heartbeat() {
+        send(HELLO);
+        long cutoff = System.currentTimeMillis() - NODE_TIMEOUT_MS;
+        for (Map.Entry<String, Long> peer : peers.entrySet()) {
+            if (peer.getValue() < cutoff && peers.remove(peer.getKey(), peer.getValue())) {
+                remoteOnline.values().removeIf(peer.getKey()::equals);
+            }
+        }
+        updateLiveNodes();
+    }
+
+    public boolean owns(String fake) {
+        return nodeId.equals(owner(fake));
+    }
+
+    public String owner(String fake) {
+        String best = nodeId;
+        long bestWeight = Long.MIN_VALUE;
+        for (String node : liveNodes) {
+            long weight = weight(node, fake);
+            if (weight > bestWeight) {
+                best = node;
+                bestWeight = weight;
+            }
+        }
+        return best;
+    }
+
+    public boolean isLeader() {
+        return liveNodes.get(0).equals(nodeId);
+    }
+
+    public boolean isRemoteOnline(String fake) {
+        return remoteOnline.containsKey(fake);
+    }
+
+    public List<String> remoteOnline() {
+        return new ArrayList<>(remoteOnline.keySet());
+    }
+
+    public void announceJoin(String fake) {
+        send(JOIN, fake);
+    }
+
+    public void announceLeave(String fake) {
+        send(LEAVE, fake);
+    }
+
+    public void publishChat(String speaker, String line) {
+        send(CHAT, speaker, line);
+    }
+
+    public String describe() {
+        List<String> nodes = liveNodes;
+        return String.format("Network: node %s%s, %d nodes %s, %d fakes online elsewhere",
+                nodeId, isLeader() ? " (leader)" : "", nodes.size(), nodes, remoteOnline.size());
+    }
+
+    private void receive(byte[] message) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(message));
+            if (in.readByte() != PROTOCOL) {
+                return;
+            }
+            byte type = in.readByte();
+            String node = in.readUTF();
+            if (node.equals(nodeId)) {
+                return;
+            }
+            boolean newPeer = peers.put(node, System.currentTimeMillis()) == null;
+            if (newPeer) {
+                updateLiveNodes();
+                // The new node missed our earlier joins.
+                for (String fake : localOnline.get()) {
+                    announceJoin(fake);
+                }
+            }
+            switch (type) {
+                case JOIN -> {
+                    String fake = in.readUTF();
+                    remoteOnline.put(fake, node);
+                    if (node.equals(owner(fake)) && localOnline.get().contains(fake)) {
+                        listener.conflict(fake);
+                    }
+                }
+                case LEAVE -> remoteOnline.remove(in.readUTF(), node);
+                case CHAT -> listener.chat(in.readUTF(), in.readUTF());
+                default -> {
+                    // HELLO carries nothing else.
+                }
+            }
+        } catch (IOException e) {
+            logger.warning("Ignoring a malformed roster message: " + e.getMessage());
+        }
+    }
+
+    private void updateLiveNodes() {
+        List<String> nodes = new ArrayList<>(peers.keySet());
+        nodes.add(nodeId);
+        Collections.sort(nodes);
+        if (!nodes.equals(liveNodes)) {
+            liveNodes = List.copyOf(nodes);
+            logger.info("Fake player network is now " + nodes + ", led by " + nodes.get(0));
+        }
+    }
+
+    private void send(byte type, String... fields) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(PROTOCOL);
+            out.writeByte(type);
+            out.writeUTF(nodeId);
+            for (String field : fields) {
+                out.writeUTF(field);
+            }
+            transport.broadcast(bytes.toByteArray());
+        } catch (IOException e) {
+            logger.warning("Could not send roster message: " + e.getMessage());
+        }
+    }
+
+    // FNV-1a over node and name, then a 64-bit finaliser so similar names spread over all nodes.
+    private static long weight(String node, String fake) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : node.getBytes(StandardCharsets.UTF_8)) {
+            hash = (hash ^ (b & 0xff)) * 0x100000001b3L;
+        }
+        hash *= 0x100000001b3L;
+        for (byte b : fake.getBytes(StandardCharsets.UTF_8)) {
+            hash = (hash ^ (b & 0xff)) * 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,17 @@
+package com.jellypudding.fakePlayers;
+
+import java.util.function.Consumer;
+
+// Carries RosterCoordinator messages between the backends of a proxy network. Delivery is best
+// effort and unordered between senders; the coordinator re-announces its state on heartbeats, so
+// a lost message only delays convergence.
+public interface RosterTransport {
+
+    // receiver may be called from any thread.
+    void start(Consumer<byte[]> receiver);
+
+    // Sends to every other node. Never delivers back to the sender.
+    void broadcast(byte[] message);
+
+    void stop();
+}
@@ -0,0 +1,156 @@
+package com.jellypudding.fakePlayers;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+
+// Reads an OpenRouter "stream: true" response one server-sent event line at a time. Only the
+// first non-blank line of the answer is ever posted, so as soon as that line is complete (or is
+// already too long to post) the result is completed and the rest of the stream is cancelled.
+class StreamingCompletion implements Flow.Subscriber<String> {
+
+    private final String speaker;
+    private final long startNanos = System.nanoTime();
+    private final StringBuilder content = new StringBuilder();
+    private final CompletableFuture<String> result = new CompletableFuture<>();
+    private volatile Flow.Subscription subscription;
+    private volatile long firstLineNanos = -1;
+
+    StreamingCompletion(String speaker) {
+        this.speaker = speaker;
+    }
+
+    // Completes with the first usable line, the whole answer if the stream ended first, or
+    // null if the first line can't be posted.
+    CompletableFuture<String> result() {
+        return result;
+    }
+
+    // Nanoseconds from the request being sent to the first line being available, or -1.
+    long timeToFirstLineNanos() {
+        return firstLineNanos;
+    }
+
+    void fail(Throwable error) {
+        result.completeExceptionally(error);
+        cancel();
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        this.subscription = subscription;
+        if (result.isDone()) {
+            subscription.cancel();
+        } else {
+            subscription.request(1);
+        }
+    }
+
+    @Override
+    public void onNext(String line) {
+        if (result.isDone()) {
+            return;
+        }
+        // Lines starting with ':' are keep-alive comments; blank lines separate events.
+        if (line.startsWith("data:")) {
+            String data = line.substring(5).trim();
+            if (data.equals("[DONE]")) {
+                finish();
+                return;
+            }
+            try {
+                appendDelta(data);
+            } catch (Exception e) {
+                fail(new IOException("Malformed stream chunk: " + e.getMessage(), e));
+                return;
+            }
+            if (checkFirstLine()) {
+                return;
+            }
+        }
+        subscription.request(1);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        result.completeExceptionally(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+        finish();
+    }
+
+    private void appendDelta(String data) throws IOException {
+        ChatCompletionCodec.Completion chunk = ChatCompletionCodec.decode(data);
+        if (chunk.error != null) {
+            throw new IOException("Stream returned an error: " + chunk.error);
+        }
+        // Reasoning tokens arrive in a separate field and are skipped by the codec.
+        if (chunk.content != null) {
+            content.append(chunk.content);
+        }
+    }
+
+    // Returns true if the result was completed from the first answer line.
+    private boolean checkFirstLine() {
+        int start = answerStart();
+        if (start < 0) {
+            return false;
+        }
+        // Skip leading blank lines; handleBotResponse only ever uses the first non-blank one.
+        while (start < content.length() && Character.isWhitespace(content.charAt(start))) {
+            start++;
+        }
+        int newline = content.indexOf("\n", start);
+        if (newline >= 0) {
+            String line = content.substring(start, newline).trim();
+            String cleanLine = ResponseSanitizer.sanitize(speaker, line);
+            complete(ResponseSanitizer.isUsable(cleanLine) ? line : null);
+            return true;
+        }
+        if (content.length() - start > ResponseSanitizer.MAX_LENGTH
+                && ResponseSanitizer.sanitize(speaker, content.substring(start)).length() > ResponseSanitizer.MAX_LENGTH) {
+            // The first line is already too long to post, so the rest isn't worth waiting for.
+            complete(null);
+            return true;
+        }
+        return false;
+    }
+
+    // Index where the answer starts, skipping an inline <think> block. -1 while still thinking.
+    private int answerStart() {
+        int start = 0;
+        while (start < content.length() && Character.isWhitespace(content.charAt(start))) {
+            start++;
+        }
+        if (content.length() - start < "<think>".length()) {
+            return "<think>".startsWith(content.substring(start)) ? -1 : start;
+        }
+        if (!content.substring(start, start + "<think>".length()).equals("<think>")) {
+            return start;
+        }
+        int end = content.indexOf("</think>", start);
+        return end < 0 ? -1 : end + "</think>".length();
+    }
+
+    private void finish() {
+        int start = answerStart();
+        complete(start < 0 ? null : content.substring(start).trim());
+    }
+
+    private void complete(String line) {
+        if (line != null && firstLineNanos < 0) {
+            firstLineNanos = System.nanoTime() - startNanos;
+        }
+        result.complete(line);
+        cancel();
+    }
+
+    private void cancel() {
+        Flow.Subscription current = subscription;
+        if (current != null) {
+            current.cancel();
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package com.jellypudding.fakePlayers;
+
+import com.mojang.authlib.GameProfile;
+import com.mojang.authlib.properties.Property;
+import net.minecraft.network.protocol.Packet;
+import net.minecraft.network.protocol.game.ClientboundPlayerInfoRemovePacket;
+import net.minecraft.network.protocol.game.ClientboundPlayerInfoUpdatePacket;
+
+import org.bukkit.Bukkit;
+import org.bukkit.craftbukkit.entity.CraftPlayer;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.*;
+
+// Collects tab-list changes made during a tick and flushes them as one packet per kind.
+// Packets are immutable once built, so the same instance is sent to every receiver.
+public class TabListBroadcaster {
+
+    private static final EnumSet<ClientboundPlayerInfoUpdatePacket.Action> ADD_ACTIONS = EnumSet.of(
+            ClientboundPlayerInfoUpdatePacket.Action.ADD_PLAYER,
+            ClientboundPlayerInfoUpdatePacket.Action.UPDATE_LISTED,
+            ClientboundPlayerInfoUpdatePacket.Action.UPDATE_LATENCY
+    );
+    private static final EnumSet<ClientboundPlayerInfoUpdatePacket.Action> LATENCY_ACTIONS = EnumSet.of(
+            ClientboundPlayerInfoUpdatePacket.Action.UPDATE_LATENCY
+    );
+
+    private static final int UUID_BYTES = 16;
+
+    private final JavaPlugin plugin;
+    private final Metrics metrics;
+    // All pending state is only touched from the main thread.
+    private final Map<UUID, ClientboundPlayerInfoUpdatePacket.Entry> pendingAdds = new LinkedHashMap<>();
+    private final Map<UUID, Integer> pendingLatency = new LinkedHashMap<>();
+    private final Set<UUID> pendingRemoves = new LinkedHashSet<>();
+    private BukkitTask flushTask;
+
+    public TabListBroadcaster(JavaPlugin plugin, Metrics metrics) {
+        this.plugin = plugin;
+        this.metrics = metrics;
+    }
+
+    public void start() {
+        flushTask = Bukkit.getScheduler().runTaskTimer(plugin, this::flush, 1L, 1L);
+    }
+
+    // Cancels the flush task and sends anything still queued.
+    public void stop() {
+        if (flushTask != null) {
+            flushTask.cancel();
+            flushTask = null;
+        }
+        flush();
+    }
+
+    public void queueAdd(ClientboundPlayerInfoUpdatePacket.Entry entry) {
+        // A pending remove is kept so a re-added profile is refreshed on the client.
+        pendingAdds.put(entry.profileId(), entry);
+        pendingLatency.remove(entry.profileId());
+    }
+
+    public void queueRemove(UUID uuid) {
+        pendingAdds.remove(uuid);
+        pendingLatency.remove(uuid);
+        pendingRemoves.add(uuid);
+    }
+
+    public void queueLatency(UUID uuid, int latency) {
+        ClientboundPlayerInfoUpdatePacket.Entry pendingAdd = pendingAdds.get(uuid);
+        if (pendingAdd != null) {
+            pendingAdds.put(uuid, withLatency(pendingAdd, latency));
+        } else if (!pendingRemoves.contains(uuid)) {
+            pendingLatency.put(uuid, latency);
+        }
+    }
+
+    public void flush() {
+        if (pendingAdds.isEmpty() && pendingLatency.isEmpty() && pendingRemoves.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+
+        // Removes go first so that a remove followed by an add in the same tick refreshes the entry.
+        List<Packet<?>> packets = new ArrayList<>(3);
+        List<String> kinds = new ArrayList<>(3);
+        List<Integer> sizes = new ArrayList<>(3);
+        if (!pendingRemoves.isEmpty()) {
+            packets.add(new ClientboundPlayerInfoRemovePacket(new ArrayList<>(pendingRemoves)));
+            kinds.add("remove");
+            sizes.add(varIntSize(pendingRemoves.size()) + pendingRemoves.size() * UUID_BYTES);
+        }
+        if (!pendingAdds.isEmpty()) {
+            List<ClientboundPlayerInfoUpdatePacket.Entry> addEntries = new ArrayList<>(pendingAdds.values());
+            packets.add(new ClientboundPlayerInfoUpdatePacket(ADD_ACTIONS, addEntries));
+            kinds.add("add");
+            sizes.add(addSize(addEntries));
+        }
+        if (!pendingLatency.isEmpty()) {
+            List<ClientboundPlayerInfoUpdatePacket.Entry> latencyEntries = new ArrayList<>(pendingLatency.size());
+            int size = 1 + varIntSize(pendingLatency.size());
+            for (Map.Entry<UUID, Integer> entry : pendingLatency.entrySet()) {
+                latencyEntries.add(latencyEntry(entry.getKey(), entry.getValue()));
+                size += UUID_BYTES + varIntSize(entry.getValue());
+            }
+            packets.add(new ClientboundPlayerInfoUpdatePacket(LATENCY_ACTIONS, latencyEntries));
+            kinds.add("latency");
+            sizes.add(size);
+        }
+
+        pendingRemoves.clear();
+        pendingAdds.clear();
+        pendingLatency.clear();
+
+        int receivers = 0;
+        for (Player receiver : Bukkit.getOnlinePlayers()) {
+            for (Packet<?> packet : packets) {
+                send(receiver, packet);
+            }
+            receivers++;
+        }
+        if (receivers > 0) {
+            for (int i = 0; i < packets.size(); i++) {
+                metrics.recordPackets(kinds.get(i), receivers, (long) sizes.get(i) * receivers);
+            }
+        }
+        metrics.recordHandler("tabListFlush", start);
+    }
+
+    // Sends a full roster to a single player (e.g. on join) in one packet.
+    public void sendRoster(Player receiver, List<ClientboundPlayerInfoUpdatePacket.Entry> entries) {
+        if (entries.isEmpty()) {
+            return;
+        }
+        ClientboundPlayerInfoUpdatePacket packet = new ClientboundPlayerInfoUpdatePacket(ADD_ACTIONS, entries);
+        send(receiver, packet);
+        metrics.recordPackets("roster", 1, addSize(entries));
+    }
+
+    // Payload size of an add packet before compression and framing, worked out from the entries
+    // rather than by encoding the packet again: action bit set, entry count, then per entry the
+    // UUID, name, properties, listed flag and latency. Strings count one byte per char, which is
+    // exact for names and textures.
+    private static int addSize(List<ClientboundPlayerInfoUpdatePacket.Entry> entries) {
+        int size = 1 + varIntSize(entries.size());
+        for (ClientboundPlayerInfoUpdatePacket.Entry entry : entries) {
+            size += UUID_BYTES + 1 + varIntSize(entry.latency());
+            GameProfile profile = entry.profile();
+            if (profile == null) {
+                size += stringSize("") + varIntSize(0);
+                continue;
+            }
+            Collection<Property> properties = profile.getProperties().values();
+            size += stringSize(profile.getName()) + varIntSize(properties.size());
+            for (Property property : properties) {
+                size += stringSize(property.name()) + stringSize(property.value()) + 1;
+                if (property.signature() != null) {
+                    size += stringSize(property.signature());
+                }
+            }
+        }
+        return size;
+    }
+
+    private static int stringSize(String value) {
+        int length = value == null ? 0 : value.length();
+        return varIntSize(length) + length;
+    }
+
+    private static int varIntSize(int value) {
+        int bytes = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            bytes++;
+        }
+        return bytes;
+    }
+
+    private void send(Player receiver, Packet<?> packet) {
+        try {
+            CraftPlayer craftPlayer = (CraftPlayer) receiver;
+            if (craftPlayer.getHandle() == null) return;
+
+            craftPlayer.getHandle().connection.send(packet);
+        } catch (Exception e) {
+            plugin.getLogger().severe("Error sending tab list update to " + receiver.getName() + ": " + e.getMessage());
+            if (e.getCause() != null) {
+                plugin.getLogger().severe("Caused by: " + e.getCause().getMessage());
+            }
+        }
+    }
+
+    private static ClientboundPlayerInfoUpdatePacket.Entry withLatency(ClientboundPlayerInfoUpdatePacket.Entry entry, int latency) {
+        return new ClientboundPlayerInfoUpdatePacket.Entry(
+                entry.profileId(),
+                entry.profile(),
+                entry.listed(),
+                latency,
+                entry.gameMode(),
+                entry.displayName(),
+                entry.showHat(),
+                entry.listOrder(),
+                entry.chatSession()
+        );
+    }
+
+    // Only the latency field is written for UPDATE_LATENCY, so everything else can stay empty.
+    private static ClientboundPlayerInfoUpdatePacket.Entry latencyEntry(UUID uuid, int latency) {
+        return new ClientboundPlayerInfoUpdatePacket.Entry(
+                uuid,
+                null,
+                false,
+                latency,
+                null,
+                null,
+                false,
+                0,
+                null
+        );
+    }
+}